@@ -0,0 +1,76 @@
+package com.huebris.plexhuebris;
+
+import com.huebris.plexhuebris.color.YuvPlanes;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Loads the checked-in benchmark fixtures from {@code src/jmh/resources/fixtures}.
+ */
+public final class Fixtures {
+
+    private Fixtures() {
+    }
+
+    /**
+     * A decoded video frame, e.g. {@code frame("720p")}. The frames are JPEGs like the thumbnails
+     * Plex serves, so they decode to the same raster layout.
+     */
+    public static BufferedImage frame(String resolution) throws IOException {
+        try ( InputStream in = open( "frame-" + resolution + ".jpg" ) ) {
+            return ImageIO.read( in );
+        }
+    }
+
+    /**
+     * The frame as a decoder would hand it over: video range BT.601 planar 4:2:0.
+     */
+    public static YuvPlanes planes(String resolution) throws IOException {
+        BufferedImage image = frame( resolution );
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int chromaStride = (width + 1) / 2;
+        byte[] luma = new byte[width * height];
+        byte[] u = new byte[chromaStride * ((height + 1) / 2)];
+        byte[] v = new byte[u.length];
+        for ( int y = 0; y < height; y++ ) {
+            for ( int x = 0; x < width; x++ ) {
+                int rgb = image.getRGB( x, y );
+                int r = (rgb >> 16) & 0xff;
+                int g = (rgb >> 8) & 0xff;
+                int b = rgb & 0xff;
+                luma[y * width + x] = (byte)(((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+                if ( (x & 1) == 0 && (y & 1) == 0 ) {
+                    u[(y / 2) * chromaStride + x / 2] = (byte)(((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+                    v[(y / 2) * chromaStride + x / 2] = (byte)(((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+                }
+            }
+        }
+        return new YuvPlanes( width, height, ByteBuffer.wrap( luma ), width, ByteBuffer.wrap( u ), ByteBuffer.wrap( v ), chromaStride, false );
+    }
+
+    public static byte[] bytes(String name) throws IOException {
+        try ( InputStream in = open( name ) ) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ( (read = in.read( chunk )) >= 0 ) {
+                out.write( chunk, 0, read );
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static InputStream open(String name) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream( "/fixtures/" + name );
+        if ( in == null ) {
+            throw new IOException( "Missing fixture " + name );
+        }
+        return in;
+    }
+}
@@ -0,0 +1,81 @@
+package com.huebris.plexhuebris.color;
+
+import com.huebris.plexhuebris.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame color work: the average and mode behind {@code MediaStreamService.averageColor}
+ * and {@code mode}, and the dominant color histogram for the whole frame and per light zone,
+ * read from an image and straight from the decoder's YUV planes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColorAnalysisBenchmark {
+
+    @Param({ "394p", "720p", "1080p" })
+    public String frame;
+
+    private BufferedImage image;
+    private YuvPlanes planes;
+    private ColorAnalyzer colorAnalyzer;
+    private ColorHistogram colorHistogram;
+    private Map<Integer, Rectangle> zones;
+
+    @Setup
+    public void setUp() throws IOException {
+        image = Fixtures.frame( frame );
+        planes = Fixtures.planes( frame );
+        colorAnalyzer = new ColorAnalyzer( 2 );
+        colorHistogram = new ColorHistogram( 2, 0 );
+        zones = new LinkedHashMap<>();
+        zones.put( 6, ScreenZone.parse( "left" ).toRectangle( image.getWidth(), image.getHeight() ) );
+        zones.put( 7, ScreenZone.parse( "right" ).toRectangle( image.getWidth(), image.getHeight() ) );
+        zones.put( 8, ScreenZone.parse( "top" ).toRectangle( image.getWidth(), image.getHeight() ) );
+    }
+
+    @Benchmark
+    public Color averageColor() {
+        return colorAnalyzer.analyze( image ).getAverage();
+    }
+
+    @Benchmark
+    public Color mode() {
+        return colorAnalyzer.analyze( image ).getMode();
+    }
+
+    @Benchmark
+    public DominantColor dominantColor() {
+        return colorHistogram.dominantColor( image );
+    }
+
+    @Benchmark
+    public Map<Integer, DominantColor> zoneColors() {
+        return colorHistogram.dominantColors( image, zones );
+    }
+
+    @Benchmark
+    public Map<Integer, DominantColor> yuvZoneColors() {
+        return colorHistogram.dominantColors( planes, zones );
+    }
+}
@@ -0,0 +1,60 @@
+package com.huebris.plexhuebris.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.*;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * What every light command costs before it hits the network: the HSB conversion into the state
+ * payload and its JSON encoding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HueServiceBenchmark {
+
+    private final HueService hueService = new HueService( new SimpleMeterRegistry(), new CircuitBreakers( 5, 10000 ) );
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Color[] colors = new Color[256];
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random( 42 );
+        for ( int i = 0; i < colors.length; i++ ) {
+            colors[i] = new Color( random.nextInt( 0x1000000 ) );
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> statePayload() {
+        return hueService.buildStatePayload( nextColor() );
+    }
+
+    @Benchmark
+    public String statePayloadJson() throws JsonProcessingException {
+        return objectMapper.writeValueAsString( hueService.buildStatePayload( nextColor() ) );
+    }
+
+    private Color nextColor() {
+        return colors[next++ & (colors.length - 1)];
+    }
+}
@@ -0,0 +1,53 @@
+package com.huebris.plexhuebris.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.huebris.plexhuebris.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a recorded {@code /status/sessions} response with the streaming parser, next to the
+ * XmlMapper tree it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlexSessionsBenchmark {
+
+    private final PlexSessionsParser parser = new PlexSessionsParser();
+    private final XmlMapper xmlMapper = new XmlMapper();
+    private byte[] sessions;
+
+    @Setup
+    public void setUp() throws IOException {
+        sessions = Fixtures.bytes( "sessions.xml" );
+    }
+
+    @Benchmark
+    public List<PlexSession> streamingParser() throws XMLStreamException {
+        return parser.parse( new ByteArrayInputStream( sessions ) );
+    }
+
+    @Benchmark
+    public JsonNode xmlMapperTree() throws IOException {
+        return xmlMapper.readTree( sessions );
+    }
+}
@@ -0,0 +1,52 @@
+package com.huebris.plexhuebris.service;
+
+import com.huebris.plexhuebris.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding a 700x394 thumbnail the way {@link ThumbnailDecoder} does, subsampled into a pooled
+ * image by a reused reader, next to the plain {@code ImageIO.read} it replaced.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ThumbnailDecodeBenchmark {
+
+    private final ThumbnailDecoder decoder = new ThumbnailDecoder( 160, 4 );
+    private byte[] thumbnail;
+
+    @Setup
+    public void setUp() throws IOException {
+        thumbnail = Fixtures.bytes( "frame-394p.jpg" );
+    }
+
+    @Benchmark
+    public BufferedImage imageIoRead() throws IOException {
+        return ImageIO.read( new ByteArrayInputStream( thumbnail ) );
+    }
+
+    @Benchmark
+    public BufferedImage pooledSubsampledDecode() throws IOException {
+        BufferedImage image = decoder.decode( decoder.download( new ByteArrayInputStream( thumbnail ), thumbnail.length ) );
+        decoder.release( image );
+        return image;
+    }
+}
@@ -0,0 +1,52 @@
+package com.huebris.plexhuebris.color;
+
+import java.awt.*;
+
+/**
+ * Result of a single {@link ColorAnalyzer} pass over a region of a frame.
+ */
+public class ColorAnalysis {
+
+    private final Color average;
+    private final Color mode;
+    private final Color dominant;
+    private final double dominantWeight;
+    private final int sampleCount;
+
+    public ColorAnalysis(Color average, Color mode, Color dominant, double dominantWeight, int sampleCount) {
+        this.average = average;
+        this.mode = mode;
+        this.dominant = dominant;
+        this.dominantWeight = dominantWeight;
+        this.sampleCount = sampleCount;
+    }
+
+    public Color getAverage() {
+        return average;
+    }
+
+    /**
+     * Most frequent value of each channel on its own.
+     */
+    public Color getMode() {
+        return mode;
+    }
+
+    /**
+     * Mean color of the densest cluster of the {@link ColorCube}.
+     */
+    public Color getDominant() {
+        return dominant;
+    }
+
+    /**
+     * Share of the sampled pixels that fell into the dominant cluster, between 0 and 1.
+     */
+    public double getDominantWeight() {
+        return dominantWeight;
+    }
+
+    public int getSampleCount() {
+        return sampleCount;
+    }
+}
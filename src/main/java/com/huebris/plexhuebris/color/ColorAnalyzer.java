@@ -0,0 +1,119 @@
+package com.huebris.plexhuebris.color;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Computes average, per-channel mode and dominant color of an image region in one row-major
+ * pass over the backing raster. All counters are primitive arrays reused per thread, so the
+ * only allocations per call are the few result objects.
+ */
+@Component
+public class ColorAnalyzer {
+
+    private final int samplingStride;
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial( Scratch::new );
+
+    public ColorAnalyzer(@Value("${color.sampling-stride:2}") int samplingStride) {
+        this.samplingStride = Math.max( 1, samplingStride );
+    }
+
+    public int getSamplingStride() {
+        return samplingStride;
+    }
+
+    public ColorAnalysis analyze(BufferedImage image) {
+        return analyze( image, 0, 0, image.getWidth(), image.getHeight(), samplingStride );
+    }
+
+    public ColorAnalysis analyze(BufferedImage image, int x0, int y0, int w, int h) {
+        return analyze( image, x0, y0, w, h, samplingStride );
+    }
+
+    /**
+     * Samples every {@code stride}-th pixel of every {@code stride}-th row of the region.
+     */
+    public ColorAnalysis analyze(BufferedImage image, int x0, int y0, int w, int h, int stride) {
+        Scratch s = scratch.get();
+        s.reset( w );
+
+        long sumR = 0, sumG = 0, sumB = 0;
+        int num = 0;
+        int[] row = s.row;
+        int[] red = s.red;
+        int[] green = s.green;
+        int[] blue = s.blue;
+        int[] cube = s.cube;
+        long[] cubeSums = s.cubeSums;
+
+        for ( int y = y0; y < y0 + h; y += stride ) {
+            int count = RasterPixels.readRow( image, x0, y, w, stride, row );
+            for ( int i = 0; i < count; i++ ) {
+                int rgb = row[i];
+                int r = (rgb >>> 16) & 0xff;
+                int g = (rgb >>> 8) & 0xff;
+                int b = rgb & 0xff;
+                sumR += r;
+                sumG += g;
+                sumB += b;
+                red[r]++;
+                green[g]++;
+                blue[b]++;
+                int cell = ColorCube.index( r, g, b );
+                cube[cell]++;
+                cubeSums[cell * 3] += r;
+                cubeSums[cell * 3 + 1] += g;
+                cubeSums[cell * 3 + 2] += b;
+            }
+            num += count;
+        }
+
+        if ( num == 0 ) {
+            return new ColorAnalysis( Color.BLACK, Color.BLACK, Color.BLACK, 0, 0 );
+        }
+
+        DominantColor dominant = ColorCube.dominantCluster( cube, cubeSums, num );
+
+        return new ColorAnalysis(
+                new Color( (int)(sumR / num), (int)(sumG / num), (int)(sumB / num) ),
+                new Color( indexOfMax( red ), indexOfMax( green ), indexOfMax( blue ) ),
+                dominant.getColor(),
+                dominant.getWeight(),
+                num );
+    }
+
+    static int indexOfMax(int[] vals) {
+        int result = 0;
+        for ( int i = 1; i < vals.length; i++ ) {
+            if ( vals[i] > vals[result] ) {
+                result = i;
+            }
+        }
+        return result;
+    }
+
+    private static class Scratch {
+        private int[] row = new int[0];
+        private final int[] red = new int[256];
+        private final int[] green = new int[256];
+        private final int[] blue = new int[256];
+        private final int[] cube = new int[ColorCube.SIZE];
+        private final long[] cubeSums = new long[ColorCube.SIZE * 3];
+
+        private void reset(int width) {
+            if ( row.length < width ) {
+                row = new int[width];
+            }
+            Arrays.fill( red, 0 );
+            Arrays.fill( green, 0 );
+            Arrays.fill( blue, 0 );
+            Arrays.fill( cube, 0 );
+            Arrays.fill( cubeSums, 0 );
+        }
+    }
+}
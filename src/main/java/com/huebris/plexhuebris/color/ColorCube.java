@@ -0,0 +1,75 @@
+package com.huebris.plexhuebris.color;
+
+import java.awt.*;
+
+/**
+ * A 16x16x16 quantization of RGB space shared by the color analysis components.
+ * Bins are addressed by {@link #index(int, int, int)}; alongside the per-bin pixel counts,
+ * callers keep per-bin channel sums ({@code sums[bin * 3 + channel]}) so the exact mean
+ * color of any set of bins can be recovered.
+ */
+public final class ColorCube {
+
+    public static final int BITS = 4;
+    public static final int SIDE = 1 << BITS;
+    public static final int SIZE = SIDE * SIDE * SIDE;
+
+    private static final int SHIFT = 8 - BITS;
+
+    private ColorCube() {
+    }
+
+    public static int index(int r, int g, int b) {
+        return ((r >>> SHIFT) << (BITS * 2)) | ((g >>> SHIFT) << BITS) | (b >>> SHIFT);
+    }
+
+    /**
+     * Finds the densest cluster: the bin whose 3x3x3 neighbourhood holds the most pixels.
+     * The result is the mean color of the pixels in that neighbourhood, so it is a color that
+     * actually occurs in the frame, weighted by how much of the frame it covers.
+     */
+    public static DominantColor dominantCluster(int[] counts, long[] sums, long total) {
+        if ( total == 0 ) {
+            return new DominantColor( Color.BLACK, 0 );
+        }
+        int best = -1;
+        long bestWeight = 0;
+        for ( int bin = 0; bin < SIZE; bin++ ) {
+            // A cluster centre must be populated itself; this also skips the many empty bins cheaply.
+            if ( counts[bin] == 0 ) {
+                continue;
+            }
+            long weight = neighbourhood( counts, null, bin, null );
+            if ( weight > bestWeight ) {
+                bestWeight = weight;
+                best = bin;
+            }
+        }
+        long[] mean = new long[3];
+        neighbourhood( counts, sums, best, mean );
+        return new DominantColor(
+                new Color( (int)(mean[0] / bestWeight), (int)(mean[1] / bestWeight), (int)(mean[2] / bestWeight) ),
+                (double) bestWeight / total );
+    }
+
+    private static long neighbourhood(int[] counts, long[] sums, int bin, long[] channelSums) {
+        int r = bin >>> (BITS * 2);
+        int g = (bin >>> BITS) & (SIDE - 1);
+        int b = bin & (SIDE - 1);
+        long weight = 0;
+        for ( int nr = Math.max( 0, r - 1 ); nr <= Math.min( SIDE - 1, r + 1 ); nr++ ) {
+            for ( int ng = Math.max( 0, g - 1 ); ng <= Math.min( SIDE - 1, g + 1 ); ng++ ) {
+                for ( int nb = Math.max( 0, b - 1 ); nb <= Math.min( SIDE - 1, b + 1 ); nb++ ) {
+                    int neighbour = (nr << (BITS * 2)) | (ng << BITS) | nb;
+                    weight += counts[neighbour];
+                    if ( channelSums != null ) {
+                        channelSums[0] += sums[neighbour * 3];
+                        channelSums[1] += sums[neighbour * 3 + 1];
+                        channelSums[2] += sums[neighbour * 3 + 2];
+                    }
+                }
+            }
+        }
+        return weight;
+    }
+}
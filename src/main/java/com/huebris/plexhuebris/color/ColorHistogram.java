@@ -0,0 +1,183 @@
+package com.huebris.plexhuebris.color;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Builds {@link ColorCube} histograms of a frame in parallel over horizontal bands of rows
+ * and reports the dominant color cluster of each requested region. Every row is read from the
+ * raster once no matter how many regions overlap it. Each band fills its own primitive bins,
+ * which are pooled and reused between frames, and the bands are summed once at the end.
+ */
+@Component
+public class ColorHistogram {
+
+    private static final int MIN_ROWS_PER_BAND = 16;
+
+    private final int samplingStride;
+    private final int bands;
+
+    private final Queue<Bins> pool = new ConcurrentLinkedQueue<>();
+
+    public ColorHistogram(@Value("${color.sampling-stride:2}") int samplingStride,
+                          @Value("${color.histogram.bands:0}") int bands) {
+        this.samplingStride = Math.max( 1, samplingStride );
+        this.bands = bands > 0 ? bands : ForkJoinPool.getCommonPoolParallelism();
+    }
+
+    public DominantColor dominantColor(BufferedImage image) {
+        return dominantColor( image, 0, 0, image.getWidth(), image.getHeight() );
+    }
+
+    public DominantColor dominantColor(BufferedImage image, int x0, int y0, int w, int h) {
+        return dominantColors( image, Collections.singletonMap( 0, new Rectangle( x0, y0, w, h ) ) ).get( 0 );
+    }
+
+    /**
+     * Computes the dominant color of every region in a single parallel pass over the frame.
+     */
+    public <K> Map<K, DominantColor> dominantColors(BufferedImage image, Map<K, Rectangle> regions) {
+        return dominantColors( RasterPixels.rows( image ), regions );
+    }
+
+    /**
+     * Same as for an image, for a frame in any pixel layout, e.g. {@link YuvPlanes}.
+     */
+    public <K> Map<K, DominantColor> dominantColors(PixelRows image, Map<K, Rectangle> regions) {
+        List<K> keys = new ArrayList<>( regions.keySet() );
+        Rectangle[] rects = new Rectangle[keys.size()];
+        Rectangle union = null;
+        for ( int i = 0; i < rects.length; i++ ) {
+            rects[i] = regions.get( keys.get( i ) ).intersection( new Rectangle( 0, 0, image.getWidth(), image.getHeight() ) );
+            union = union == null ? rects[i] : union.union( rects[i] );
+        }
+        Map<K, DominantColor> result = new LinkedHashMap<>();
+        if ( union == null || union.isEmpty() ) {
+            for ( K key : keys ) {
+                result.put( key, new DominantColor( Color.BLACK, 0 ) );
+            }
+            return result;
+        }
+
+        Rectangle span = union;
+        int rows = (span.height + samplingStride - 1) / samplingStride;
+        int bandCount = Math.max( 1, Math.min( bands, rows / MIN_ROWS_PER_BAND ) );
+        int rowsPerBand = (rows + bandCount - 1) / bandCount;
+
+        List<ForkJoinTask<Bins[]>> tasks = new ArrayList<>( bandCount );
+        for ( int band = 1; band < bandCount; band++ ) {
+            int firstRow = band * rowsPerBand;
+            int lastRow = Math.min( rows, firstRow + rowsPerBand );
+            tasks.add( ForkJoinPool.commonPool().submit( () -> accumulate( image, span, rects, firstRow, lastRow ) ) );
+        }
+        // The calling thread takes the first band instead of sitting idle.
+        Bins[] total = accumulate( image, span, rects, 0, Math.min( rows, rowsPerBand ) );
+        for ( ForkJoinTask<Bins[]> task : tasks ) {
+            Bins[] bins = task.join();
+            for ( int i = 0; i < rects.length; i++ ) {
+                total[i].add( bins[i] );
+                release( bins[i] );
+            }
+        }
+
+        for ( int i = 0; i < rects.length; i++ ) {
+            result.put( keys.get( i ), ColorCube.dominantCluster( total[i].counts, total[i].sums, total[i].pixels ) );
+            release( total[i] );
+        }
+        return result;
+    }
+
+    private Bins[] accumulate(PixelRows image, Rectangle span, Rectangle[] rects, int firstRow, int lastRow) {
+        Bins[] bins = new Bins[rects.length];
+        int[] from = new int[rects.length];
+        int[] to = new int[rects.length];
+        for ( int i = 0; i < rects.length; i++ ) {
+            bins[i] = acquire();
+            // Sample columns are span.x + k * stride; find the k range falling inside each region.
+            from[i] = (rects[i].x - span.x + samplingStride - 1) / samplingStride;
+            to[i] = (rects[i].x + rects[i].width - span.x + samplingStride - 1) / samplingStride;
+        }
+        int[] row = bins[0].row( span.width );
+
+        for ( int r = firstRow; r < lastRow; r++ ) {
+            int y = span.y + r * samplingStride;
+            image.readRow( span.x, y, span.width, samplingStride, row );
+            for ( int i = 0; i < rects.length; i++ ) {
+                if ( y < rects[i].y || y >= rects[i].y + rects[i].height ) {
+                    continue;
+                }
+                int[] counts = bins[i].counts;
+                long[] sums = bins[i].sums;
+                for ( int p = from[i]; p < to[i]; p++ ) {
+                    int rgb = row[p];
+                    int red = (rgb >>> 16) & 0xff;
+                    int green = (rgb >>> 8) & 0xff;
+                    int blue = rgb & 0xff;
+                    int bin = ColorCube.index( red, green, blue );
+                    counts[bin]++;
+                    sums[bin * 3] += red;
+                    sums[bin * 3 + 1] += green;
+                    sums[bin * 3 + 2] += blue;
+                }
+                bins[i].pixels += to[i] - from[i];
+            }
+        }
+        return bins;
+    }
+
+    private Bins acquire() {
+        Bins bins = pool.poll();
+        if ( bins == null ) {
+            bins = new Bins();
+        }
+        bins.reset();
+        return bins;
+    }
+
+    private void release(Bins bins) {
+        pool.offer( bins );
+    }
+
+    private static class Bins {
+        private final int[] counts = new int[ColorCube.SIZE];
+        private final long[] sums = new long[ColorCube.SIZE * 3];
+        private int[] row = new int[0];
+        private long pixels;
+
+        private void reset() {
+            Arrays.fill( counts, 0 );
+            Arrays.fill( sums, 0 );
+            pixels = 0;
+        }
+
+        private int[] row(int width) {
+            if ( row.length < width ) {
+                row = new int[width];
+            }
+            return row;
+        }
+
+        private void add(Bins other) {
+            for ( int i = 0; i < counts.length; i++ ) {
+                counts[i] += other.counts[i];
+            }
+            for ( int i = 0; i < sums.length; i++ ) {
+                sums[i] += other.sums[i];
+            }
+            pixels += other.pixels;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.huebris.plexhuebris.color;
+
+import java.awt.*;
+
+public class DominantColor {
+
+    private final Color color;
+    private final double weight;
+
+    public DominantColor(Color color, double weight) {
+        this.color = color;
+        this.weight = weight;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    /**
+     * Share of the sampled pixels belonging to this color's cluster, between 0 and 1.
+     */
+    public double getWeight() {
+        return weight;
+    }
+
+    @Override
+    public String toString() {
+        return color + " (" + Math.round( weight * 100 ) + "%)";
+    }
+}
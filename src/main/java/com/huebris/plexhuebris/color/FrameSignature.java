@@ -0,0 +1,64 @@
+package com.huebris.plexhuebris.color;
+
+/**
+ * A tiny 8x8 average-color thumbnail of a frame, cheap enough to take of every decoded frame.
+ * Two frames of the same shot are close; a cut or a big color shift is far apart.
+ */
+public final class FrameSignature {
+
+    static final int SIZE = 8;
+    private static final int ROWS_PER_CELL = 2;
+    private static final int SAMPLES_PER_CELL = 4;
+
+    private final byte[] cells;
+
+    private FrameSignature(byte[] cells) {
+        this.cells = cells;
+    }
+
+    /**
+     * Reads 16 rows of the frame, about 32 pixels each, into the 8x8 grid.
+     */
+    public static FrameSignature of(PixelRows frame) {
+        int width = frame.getWidth();
+        int height = frame.getHeight();
+        int[] sums = new int[SIZE * SIZE * 3];
+        int[] counts = new int[SIZE * SIZE];
+        if ( width > 0 && height > 0 ) {
+            int stride = Math.max( 1, width / (SIZE * SAMPLES_PER_CELL) );
+            int[] row = new int[(width + stride - 1) / stride];
+            int rows = SIZE * ROWS_PER_CELL;
+            for ( int r = 0; r < rows; r++ ) {
+                // The middle of each of the evenly spaced row bands.
+                int y = (int)((2L * r + 1) * height / (2L * rows));
+                int cellRow = r / ROWS_PER_CELL * SIZE;
+                int count = frame.readRow( 0, y, width, stride, row );
+                for ( int i = 0; i < count; i++ ) {
+                    int cell = cellRow + i * stride * SIZE / width;
+                    int rgb = row[i];
+                    sums[cell * 3] += (rgb >>> 16) & 0xff;
+                    sums[cell * 3 + 1] += (rgb >>> 8) & 0xff;
+                    sums[cell * 3 + 2] += rgb & 0xff;
+                    counts[cell]++;
+                }
+            }
+        }
+        byte[] cells = new byte[sums.length];
+        for ( int i = 0; i < sums.length; i++ ) {
+            int count = counts[i / 3];
+            cells[i] = (byte)(count == 0 ? 0 : sums[i] / count);
+        }
+        return new FrameSignature( cells );
+    }
+
+    /**
+     * Mean absolute difference over every cell and channel, 0 (identical) to 255.
+     */
+    public double distance(FrameSignature other) {
+        long total = 0;
+        for ( int i = 0; i < cells.length; i++ ) {
+            total += Math.abs( (cells[i] & 0xff) - (other.cells[i] & 0xff) );
+        }
+        return (double)total / cells.length;
+    }
+}
@@ -0,0 +1,86 @@
+package com.huebris.plexhuebris.color;
+
+import java.awt.*;
+
+/**
+ * Conversions between sRGB and CIELAB (D65 white point). Distances and blends in CIELAB follow
+ * what the eye sees, so fading through it stays clear of the grey, muddy middle a straight
+ * RGB blend goes through.
+ */
+public final class LabColor {
+
+    private static final double XN = 0.95047;
+    private static final double YN = 1.0;
+    private static final double ZN = 1.08883;
+
+    private static final double EPSILON = 216.0 / 24389.0;
+    private static final double KAPPA = 24389.0 / 27.0;
+
+    private LabColor() {
+    }
+
+    /**
+     * The color as {L, a, b}.
+     */
+    public static double[] fromColor(Color color) {
+        double r = toLinear( color.getRed() );
+        double g = toLinear( color.getGreen() );
+        double b = toLinear( color.getBlue() );
+
+        double x = (0.4124564 * r + 0.3575761 * g + 0.1804375 * b) / XN;
+        double y = (0.2126729 * r + 0.7151522 * g + 0.0721750 * b) / YN;
+        double z = (0.0193339 * r + 0.1191920 * g + 0.9503041 * b) / ZN;
+
+        double fx = f( x );
+        double fy = f( y );
+        double fz = f( z );
+        return new double[] { 116 * fy - 16, 500 * (fx - fy), 200 * (fy - fz) };
+    }
+
+    /**
+     * The sRGB color closest to {L, a, b}; out of gamut channels are clipped.
+     */
+    public static Color toColor(double[] lab) {
+        double fy = (lab[0] + 16) / 116;
+        double fx = fy + lab[1] / 500;
+        double fz = fy - lab[2] / 200;
+
+        double x = fInverse( fx ) * XN;
+        double y = fInverse( fy ) * YN;
+        double z = fInverse( fz ) * ZN;
+
+        double r = 3.2404542 * x - 1.5371385 * y - 0.4985314 * z;
+        double g = -0.9692660 * x + 1.8760108 * y + 0.0415560 * z;
+        double b = 0.0556434 * x - 0.2040259 * y + 1.0572252 * z;
+        return new Color( toGamma( r ), toGamma( g ), toGamma( b ) );
+    }
+
+    /**
+     * The CIE76 color difference; about 2.3 is just noticeable.
+     */
+    public static double deltaE(double[] lab1, double[] lab2) {
+        double dl = lab1[0] - lab2[0];
+        double da = lab1[1] - lab2[1];
+        double db = lab1[2] - lab2[2];
+        return Math.sqrt( dl * dl + da * da + db * db );
+    }
+
+    private static double f(double t) {
+        return t > EPSILON ? Math.cbrt( t ) : (KAPPA * t + 16) / 116;
+    }
+
+    private static double fInverse(double t) {
+        double cube = t * t * t;
+        return cube > EPSILON ? cube : (116 * t - 16) / KAPPA;
+    }
+
+    private static double toLinear(int channel) {
+        double c = channel / 255.0;
+        return c <= 0.04045 ? c / 12.92 : Math.pow( (c + 0.055) / 1.055, 2.4 );
+    }
+
+    private static int toGamma(double linear) {
+        double c = linear <= 0.0031308 ? 12.92 * linear : 1.055 * Math.pow( linear, 1 / 2.4 ) - 0.055;
+        return (int)Math.max( 0, Math.min( 255, Math.round( c * 255 ) ) );
+    }
+}
@@ -0,0 +1,46 @@
+package com.huebris.plexhuebris.color;
+
+import java.awt.*;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Temporal filter for a room's light colors. Each new target is blended into the previous output
+ * in CIELAB with weight {@code factor}, which evens out thumbnail to thumbnail flicker. A target
+ * at least {@code sceneCut} (CIE76) away from the previous output is a cut and is taken as is.
+ */
+public class LabSmoother {
+
+    private final double factor;
+    private final double sceneCut;
+
+    private final Map<Integer, double[]> previous = new HashMap<>();
+
+    public LabSmoother(double factor, double sceneCut) {
+        this.factor = Math.max( 0, Math.min( factor, 1 ) );
+        this.sceneCut = sceneCut;
+    }
+
+    public synchronized Map<Integer, Color> apply(Map<Integer, Color> target) {
+        Map<Integer, Color> result = new LinkedHashMap<>();
+        for ( Map.Entry<Integer, Color> entry : target.entrySet() ) {
+            double[] lab = LabColor.fromColor( entry.getValue() );
+            double[] last = previous.get( entry.getKey() );
+            if ( last == null || LabColor.deltaE( last, lab ) >= sceneCut ) {
+                previous.put( entry.getKey(), lab );
+                result.put( entry.getKey(), entry.getValue() );
+                continue;
+            }
+            for ( int i = 0; i < lab.length; i++ ) {
+                last[i] += factor * (lab[i] - last[i]);
+            }
+            result.put( entry.getKey(), LabColor.toColor( last ) );
+        }
+        return result;
+    }
+
+    public synchronized void reset() {
+        previous.clear();
+    }
+}
@@ -0,0 +1,20 @@
+package com.huebris.plexhuebris.color;
+
+/**
+ * A frame that can be read one row at a time as packed 0xRRGGBB ints, whatever its pixels are
+ * stored as.
+ */
+public interface PixelRows {
+
+    int getWidth();
+
+    int getHeight();
+
+    /**
+     * Reads every {@code stride}-th pixel of row {@code y} starting at {@code x0} and spanning
+     * {@code width} pixels into {@code out}.
+     *
+     * @return the number of pixels written
+     */
+    int readRow(int x0, int y, int width, int stride, int[] out);
+}
@@ -0,0 +1,147 @@
+package com.huebris.plexhuebris.color;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Reads pixels straight out of a {@link BufferedImage}'s backing array, one row at a time,
+ * as packed 0xRRGGBB ints. Byte-interleaved (3BYTE_BGR, 4BYTE_ABGR, BYTE_GRAY) and int-packed
+ * (INT_RGB, INT_ARGB, INT_BGR) layouts are read without going through the color model, as long
+ * as their samples are sRGB or gray values; anything else, palette images included, falls back to
+ * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}.
+ */
+public final class RasterPixels {
+
+    private RasterPixels() {
+    }
+
+    /**
+     * The image as {@link PixelRows}, read through {@link #readRow(BufferedImage, int, int, int, int, int[])}.
+     */
+    public static PixelRows rows(BufferedImage image) {
+        return new PixelRows() {
+            @Override
+            public int getWidth() {
+                return image.getWidth();
+            }
+
+            @Override
+            public int getHeight() {
+                return image.getHeight();
+            }
+
+            @Override
+            public int readRow(int x0, int y, int width, int stride, int[] out) {
+                return RasterPixels.readRow( image, x0, y, width, stride, out );
+            }
+        };
+    }
+
+    /**
+     * Reads every {@code stride}-th pixel of row {@code y} starting at {@code x0} and spanning
+     * {@code width} pixels into {@code out}.
+     *
+     * @return the number of pixels written
+     */
+    public static int readRow(BufferedImage image, int x0, int y, int width, int stride, int[] out) {
+        Raster raster = image.getRaster();
+        SampleModel sampleModel = raster.getSampleModel();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        int sx = x0 - raster.getSampleModelTranslateX();
+        int sy = y - raster.getSampleModelTranslateY();
+
+        ColorModel colorModel = image.getColorModel();
+        if ( dataBuffer instanceof DataBufferByte && sampleModel instanceof ComponentSampleModel
+                && dataBuffer.getNumBanks() == 1 && sampleModel.getSampleSize( 0 ) == 8 && hasDirectSamples( colorModel ) ) {
+            return readByteRow( (DataBufferByte) dataBuffer, (ComponentSampleModel) sampleModel, sx, sy, width, stride, out );
+        }
+        if ( dataBuffer instanceof DataBufferInt && sampleModel instanceof SinglePixelPackedSampleModel
+                && sampleModel.getNumBands() >= 3 && colorModel instanceof DirectColorModel ) {
+            return readIntRow( (DataBufferInt) dataBuffer, (SinglePixelPackedSampleModel) sampleModel, sx, sy, width, stride, out );
+        }
+        return readGenericRow( image, x0, y, width, stride, out );
+    }
+
+    /**
+     * Whether the bytes are the color itself: sRGB channels or a gray level, rather than e.g.
+     * palette indices or samples of another color space.
+     */
+    private static boolean hasDirectSamples(ColorModel colorModel) {
+        if ( !(colorModel instanceof ComponentColorModel) ) {
+            return false;
+        }
+        ColorSpace colorSpace = colorModel.getColorSpace();
+        int components = colorModel.getNumColorComponents();
+        return components == 3 && colorSpace.isCS_sRGB() || components == 1 && colorSpace.getType() == ColorSpace.TYPE_GRAY;
+    }
+
+    private static int readByteRow(DataBufferByte dataBuffer, ComponentSampleModel sampleModel, int sx, int sy,
+                                   int width, int stride, int[] out) {
+        byte[] data = dataBuffer.getData();
+        int pixelStride = sampleModel.getPixelStride();
+        int[] bandOffsets = sampleModel.getBandOffsets();
+        int index = dataBuffer.getOffset() + sy * sampleModel.getScanlineStride() + sx * pixelStride;
+        int step = pixelStride * stride;
+        int count = 0;
+        if ( bandOffsets.length < 3 ) {
+            int gray = bandOffsets[0];
+            for ( int x = 0; x < width; x += stride, index += step ) {
+                int v = data[index + gray] & 0xff;
+                out[count++] = (v << 16) | (v << 8) | v;
+            }
+            return count;
+        }
+        int r = bandOffsets[0];
+        int g = bandOffsets[1];
+        int b = bandOffsets[2];
+        for ( int x = 0; x < width; x += stride, index += step ) {
+            out[count++] = ((data[index + r] & 0xff) << 16) | ((data[index + g] & 0xff) << 8) | (data[index + b] & 0xff);
+        }
+        return count;
+    }
+
+    private static int readIntRow(DataBufferInt dataBuffer, SinglePixelPackedSampleModel sampleModel, int sx, int sy,
+                                  int width, int stride, int[] out) {
+        int[] data = dataBuffer.getData();
+        int[] masks = sampleModel.getBitMasks();
+        int[] offsets = sampleModel.getBitOffsets();
+        int index = dataBuffer.getOffset() + sy * sampleModel.getScanlineStride() + sx;
+        int count = 0;
+        if ( masks[0] == 0xff0000 && masks[1] == 0xff00 && masks[2] == 0xff ) {
+            for ( int x = 0; x < width; x += stride, index += stride ) {
+                out[count++] = data[index] & 0xffffff;
+            }
+            return count;
+        }
+        for ( int x = 0; x < width; x += stride, index += stride ) {
+            int v = data[index];
+            out[count++] = (((v & masks[0]) >>> offsets[0]) << 16) | (((v & masks[1]) >>> offsets[1]) << 8) | ((v & masks[2]) >>> offsets[2]);
+        }
+        return count;
+    }
+
+    private static int readGenericRow(BufferedImage image, int x0, int y, int width, int stride, int[] out) {
+        if ( stride == 1 ) {
+            image.getRGB( x0, y, width, 1, out, 0, width );
+            for ( int i = 0; i < width; i++ ) {
+                out[i] &= 0xffffff;
+            }
+            return width;
+        }
+        int count = 0;
+        for ( int x = 0; x < width; x += stride ) {
+            out[count++] = image.getRGB( x0 + x, y ) & 0xffffff;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,68 @@
+package com.huebris.plexhuebris.color;
+
+/**
+ * Decides which frames of a stream are worth a full color analysis and a light update: those that
+ * changed at least {@code threshold} from the last one taken, but no more often than every
+ * {@code minIntervalMs}, and at least every {@code maxIntervalMs} however static the picture is.
+ * How far a frame is from the last one taken is up to the caller, e.g.
+ * {@link FrameSignature#distance(FrameSignature)}.
+ */
+public class SceneDetector {
+
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final double threshold;
+
+    private long lastMs = Long.MIN_VALUE;
+    private long taken;
+    private long skipped;
+
+    public SceneDetector(long minIntervalMs, long maxIntervalMs, double threshold) {
+        this.minIntervalMs = Math.max( 0, minIntervalMs );
+        this.maxIntervalMs = Math.max( this.minIntervalMs, maxIntervalMs );
+        this.threshold = threshold;
+    }
+
+    /**
+     * True when the frame is too soon after the last one taken to be taken at all, so the caller
+     * can skip even working out its change.
+     */
+    public boolean isTooSoon(long timestampMs) {
+        return lastMs != Long.MIN_VALUE && timestampMs >= lastMs && timestampMs - lastMs < minIntervalMs;
+    }
+
+    /**
+     * Whether to take the frame; taking it makes it the one the next frames are measured against.
+     *
+     * @param change how far the frame is from the last one taken, infinite when there is none
+     */
+    public boolean take(long timestampMs, double change) {
+        boolean take;
+        if ( lastMs == Long.MIN_VALUE || timestampMs < lastMs ) {
+            // First frame, or the stream went back.
+            take = true;
+        } else {
+            long elapsed = timestampMs - lastMs;
+            take = elapsed >= maxIntervalMs || (elapsed >= minIntervalMs && change >= threshold);
+        }
+        if ( take ) {
+            lastMs = timestampMs;
+            taken++;
+        } else {
+            skipped++;
+        }
+        return take;
+    }
+
+    public void reset() {
+        lastMs = Long.MIN_VALUE;
+    }
+
+    public long getTakenCount() {
+        return taken;
+    }
+
+    public long getSkippedCount() {
+        return skipped;
+    }
+}
@@ -0,0 +1,74 @@
+package com.huebris.plexhuebris.color;
+
+import java.awt.*;
+
+/**
+ * A rectangular region of the frame expressed in fractions of its width and height, so the same
+ * zone applies to thumbnails and full-size decoded frames alike.
+ */
+public class ScreenZone {
+
+    public static final ScreenZone FULL = new ScreenZone( 0, 0, 1, 1 );
+
+    private static final double EDGE = 0.25;
+
+    private final double x;
+    private final double y;
+    private final double width;
+    private final double height;
+
+    public ScreenZone(double x, double y, double width, double height) {
+        if ( x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > 1.0001 || y + height > 1.0001 ) {
+            throw new IllegalArgumentException( "Zone must lie within the frame: " + x + "," + y + "," + width + "," + height );
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Parses either a named zone ({@code full}, {@code left}, {@code right}, {@code top},
+     * {@code bottom}, {@code center}) or four comma separated fractions {@code x,y,width,height}.
+     */
+    public static ScreenZone parse(String value) {
+        String zone = value.trim().toLowerCase();
+        switch ( zone ) {
+            case "full":
+                return FULL;
+            case "left":
+                return new ScreenZone( 0, 0, EDGE, 1 );
+            case "right":
+                return new ScreenZone( 1 - EDGE, 0, EDGE, 1 );
+            case "top":
+                return new ScreenZone( 0, 0, 1, EDGE );
+            case "bottom":
+                return new ScreenZone( 0, 1 - EDGE, 1, EDGE );
+            case "center":
+                return new ScreenZone( EDGE, EDGE, 1 - 2 * EDGE, 1 - 2 * EDGE );
+            default:
+                String[] parts = zone.split( "," );
+                if ( parts.length != 4 ) {
+                    throw new IllegalArgumentException( "Unknown screen zone: " + value );
+                }
+                return new ScreenZone( Double.parseDouble( parts[0] ), Double.parseDouble( parts[1] ),
+                        Double.parseDouble( parts[2] ), Double.parseDouble( parts[3] ) );
+        }
+    }
+
+    /**
+     * The zone in pixels of a frame of the given size; never empty.
+     */
+    public Rectangle toRectangle(int frameWidth, int frameHeight) {
+        int x0 = (int) Math.floor( x * frameWidth );
+        int y0 = (int) Math.floor( y * frameHeight );
+        int x1 = Math.min( frameWidth, Math.max( x0 + 1, (int) Math.ceil( (x + width) * frameWidth ) ) );
+        int y1 = Math.min( frameHeight, Math.max( y0 + 1, (int) Math.ceil( (y + height) * frameHeight ) ) );
+        return new Rectangle( x0, y0, x1 - x0, y1 - y0 );
+    }
+
+    @Override
+    public String toString() {
+        return x + "," + y + "," + width + "," + height;
+    }
+}
@@ -0,0 +1,76 @@
+package com.huebris.plexhuebris.color;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A decoded planar YUV 4:2:0 frame read in place: only the pixels actually sampled are converted
+ * to RGB (BT.601, like the BGR24 picture converter), each taking its chroma from the quarter-size
+ * U and V planes. No full-size RGB copy of the frame is ever made.
+ */
+public class YuvPlanes implements PixelRows {
+
+    private final int width;
+    private final int height;
+    private final ByteBuffer luma;
+    private final int lumaStride;
+    private final ByteBuffer u;
+    private final ByteBuffer v;
+    private final int chromaStride;
+    private final boolean fullRange;
+
+    /**
+     * @param fullRange true for JPEG-style 0-255 luma (yuvj420p), false for the 16-235 video range
+     */
+    public YuvPlanes(int width, int height, ByteBuffer luma, int lumaStride, ByteBuffer u, ByteBuffer v, int chromaStride, boolean fullRange) {
+        this.width = width;
+        this.height = height;
+        this.luma = luma;
+        this.lumaStride = lumaStride;
+        this.u = u;
+        this.v = v;
+        this.chromaStride = chromaStride;
+        this.fullRange = fullRange;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int readRow(int x0, int y, int width, int stride, int[] out) {
+        int lumaRow = y * lumaStride;
+        int chromaRow = (y >> 1) * chromaStride;
+        int count = 0;
+        for ( int x = x0; x < x0 + width; x += stride ) {
+            int luminance = luma.get( lumaRow + x ) & 0xff;
+            int cb = (u.get( chromaRow + (x >> 1) ) & 0xff) - 128;
+            int cr = (v.get( chromaRow + (x >> 1) ) & 0xff) - 128;
+            out[count++] = fullRange ? fullRangeToRgb( luminance, cb, cr ) : videoRangeToRgb( luminance, cb, cr );
+        }
+        return count;
+    }
+
+    static int videoRangeToRgb(int luminance, int cb, int cr) {
+        int c = 298 * (luminance - 16) + 128;
+        return pack( (c + 409 * cr) >> 8, (c - 100 * cb - 208 * cr) >> 8, (c + 516 * cb) >> 8 );
+    }
+
+    static int fullRangeToRgb(int luminance, int cb, int cr) {
+        int c = (luminance << 8) + 128;
+        return pack( (c + 359 * cr) >> 8, (c - 88 * cb - 183 * cr) >> 8, (c + 454 * cb) >> 8 );
+    }
+
+    private static int pack(int red, int green, int blue) {
+        return (clamp( red ) << 16) | (clamp( green ) << 8) | clamp( blue );
+    }
+
+    private static int clamp(int channel) {
+        return channel < 0 ? 0 : channel > 255 ? 255 : channel;
+    }
+}
@@ -0,0 +1,31 @@
+package com.huebris.plexhuebris.controller;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.socket.config.annotation.EnableWebSocket;
+import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistration;
+import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+
+@Configuration
+@EnableWebSocket
+public class ColorStreamConfig implements WebSocketConfigurer {
+
+    private final ColorStreamHandler colorStreamHandler;
+    private final String allowedOrigins;
+
+    public ColorStreamConfig(ColorStreamHandler colorStreamHandler,
+                             @Value("${huebris.stream.allowed-origins:}") String allowedOrigins) {
+        this.colorStreamHandler = colorStreamHandler;
+        this.allowedOrigins = allowedOrigins;
+    }
+
+    @Override
+    public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
+        WebSocketHandlerRegistration registration = registry.addHandler( colorStreamHandler, "/ws/colors" );
+        // Without any origins listed only pages served from here may connect.
+        if ( !allowedOrigins.trim().isEmpty() ) {
+            registration.setAllowedOrigins( allowedOrigins.trim().split( "\\s*,\\s*" ) );
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.huebris.plexhuebris.controller;
+
+import com.huebris.plexhuebris.service.ColorBroadcaster;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.ConcurrentWebSocketSessionDecorator;
+import org.springframework.web.socket.handler.TextWebSocketHandler;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * Streams color frames as JSON text messages to every connected WebSocket, optionally only one
+ * player's: {@code /ws/colors?player=<machine identifier>}. Each session is wrapped so a send that
+ * exceeds the time or buffer limit fails instead of queueing behind a stuck client.
+ */
+@Component
+public class ColorStreamHandler extends TextWebSocketHandler {
+
+    private static final Logger log = LoggerFactory.getLogger( ColorStreamHandler.class );
+
+    private final ColorBroadcaster colorBroadcaster;
+    private final int sendTimeoutMs;
+    private final int sendBufferBytes;
+
+    public ColorStreamHandler(ColorBroadcaster colorBroadcaster,
+                              @Value("${huebris.stream.send-timeout-ms:2000}") int sendTimeoutMs,
+                              @Value("${huebris.stream.send-buffer-bytes:65536}") int sendBufferBytes) {
+        this.colorBroadcaster = colorBroadcaster;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.sendBufferBytes = sendBufferBytes;
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession rawSession) {
+        WebSocketSession session = new ConcurrentWebSocketSessionDecorator( rawSession, sendTimeoutMs, sendBufferBytes );
+        colorBroadcaster.subscribe( session.getId(), player( session.getUri() ), new ColorBroadcaster.Sink() {
+            @Override
+            public void send(String frame) throws IOException {
+                session.sendMessage( new TextMessage( frame ) );
+            }
+
+            @Override
+            public void close() {
+                try {
+                    session.close( CloseStatus.SESSION_NOT_RELIABLE );
+                } catch (IOException e) {
+                    log.debug( e.getMessage(), e );
+                }
+            }
+        } );
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        colorBroadcaster.unsubscribe( session.getId() );
+    }
+
+    @Override
+    public void handleTransportError(WebSocketSession session, Throwable exception) {
+        colorBroadcaster.unsubscribe( session.getId() );
+    }
+
+    private static String player(URI uri) {
+        if ( uri == null || uri.getQuery() == null ) {
+            return null;
+        }
+        for ( String parameter : uri.getQuery().split( "&" ) ) {
+            if ( parameter.startsWith( "player=" ) && parameter.length() > "player=".length() ) {
+                return parameter.substring( "player=".length() );
+            }
+        }
+        return null;
+    }
+}
@@ -3,6 +3,7 @@ package com.huebris.plexhuebris.controller;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.huebris.plexhuebris.service.MediaStreamService;
+import com.huebris.plexhuebris.service.SessionTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
@@ -11,16 +12,22 @@ import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartHttpServletRequest;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 @RestController
 public class HookController {
     private static final Logger log = LoggerFactory.getLogger( HookController.class );
+    private static final Set<String> VIDEO_TYPES = new HashSet<>( Arrays.asList( "movie", "episode" ) );
 
-    public HookController(MediaStreamService mediaStreamService) {
+    public HookController(MediaStreamService mediaStreamService, SessionTracker sessionTracker) {
         this.mediaStreamService = mediaStreamService;
+        this.sessionTracker = sessionTracker;
     }
 
     private MediaStreamService mediaStreamService;
+    private SessionTracker sessionTracker;
     private ObjectMapper objectMapper = new ObjectMapper();
     @RequestMapping(name = "/api/hook", consumes = MediaType.MULTIPART_FORM_DATA_VALUE )
     public void hook(MultipartHttpServletRequest request) {
@@ -30,13 +37,36 @@ public class HookController {
             JsonNode jsonNode = objectMapper.readTree( json );
             String event = jsonNode.get("event").asText();
             log.info(event );
+            // Not every player reports its position with the event.
+            JsonNode viewOffset = jsonNode.path("Metadata").path("viewOffset");
+            long offsetMs = viewOffset.isMissingNode() ? -1 : viewOffset.asLong();
+            String player = jsonNode.path("Player").path("uuid").asText();
+            // Only movies and episodes have colors to show, and without a player there is no room to show them in.
+            String type = jsonNode.path("Metadata").path("type").asText();
+            if ( player.isEmpty() || !VIDEO_TYPES.contains( type ) ) {
+                log.debug( "Ignoring " + event + " of " + (type.isEmpty() ? "unknown type" : type) + " for player '" + player + "'" );
+                return;
+            }
 
+            // Other rooms may still be playing, so the engine only pauses or stops with the last player.
             if ( "media.pause".equals( event )) {
-                mediaStreamService.stop();
+                sessionTracker.onPause( player, offsetMs );
+                if ( !sessionTracker.isAnyPlaying() ) {
+                    mediaStreamService.pause();
+                }
             } else if ( "media.play".equals(event ) ) {
+                sessionTracker.onPlay( player, offsetMs );
                 mediaStreamService.start();
             } else if ( "media.resume".equals(event ) ) {
+                sessionTracker.onPlay( player, offsetMs );
                 mediaStreamService.start();
+            } else if ( "media.stop".equals(event ) ) {
+                sessionTracker.onStop( player );
+                if ( sessionTracker.getPlayers().isEmpty() ) {
+                    mediaStreamService.stop();
+                } else if ( !sessionTracker.isAnyPlaying() ) {
+                    mediaStreamService.pause();
+                }
             }
         } catch (IOException e) {
             log.error(e.getMessage(), e);
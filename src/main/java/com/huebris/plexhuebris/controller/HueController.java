@@ -0,0 +1,23 @@
+package com.huebris.plexhuebris.controller;
+
+import com.huebris.plexhuebris.service.HueTransport;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+@RestController
+public class HueController {
+
+    public HueController(HueTransport hueTransport) {
+        this.hueTransport = hueTransport;
+    }
+
+    private HueTransport hueTransport;
+
+    @RequestMapping(path = { "/api/hue/transport", "/api/hue/scheduler" }, produces = MediaType.APPLICATION_JSON_VALUE )
+    public Map<String, Object> transportStatistics() {
+        return hueTransport.getStatistics();
+    }
+}
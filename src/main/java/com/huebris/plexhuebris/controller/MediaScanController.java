@@ -1,23 +1,40 @@
 package com.huebris.plexhuebris.controller;
 
+import com.huebris.plexhuebris.index.ColorCache;
+import com.huebris.plexhuebris.service.CircuitBreakers;
+import com.huebris.plexhuebris.service.ColorBroadcaster;
+import com.huebris.plexhuebris.service.LatencyTracker;
 import com.huebris.plexhuebris.service.MediaStreamService;
+import com.huebris.plexhuebris.service.ThumbnailPrefetcher;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
+import java.util.Map;
 
 @RestController
 public class MediaScanController {
 
     private static final Logger log = LoggerFactory.getLogger( MediaScanController.class );
 
-    public MediaScanController(MediaStreamService mediaStreamService) {
+    public MediaScanController(MediaStreamService mediaStreamService, ThumbnailPrefetcher thumbnailPrefetcher, LatencyTracker latencyTracker, ColorCache colorCache,
+                               ColorBroadcaster colorBroadcaster, CircuitBreakers circuitBreakers) {
         this.mediaStreamService = mediaStreamService;
+        this.thumbnailPrefetcher = thumbnailPrefetcher;
+        this.latencyTracker = latencyTracker;
+        this.colorCache = colorCache;
+        this.colorBroadcaster = colorBroadcaster;
+        this.circuitBreakers = circuitBreakers;
     }
 
     private MediaStreamService mediaStreamService;
+    private ThumbnailPrefetcher thumbnailPrefetcher;
+    private LatencyTracker latencyTracker;
+    private ColorCache colorCache;
+    private ColorBroadcaster colorBroadcaster;
+    private CircuitBreakers circuitBreakers;
 
     @RequestMapping(path = "/api/startDemo", produces = MediaType.APPLICATION_JSON_VALUE )
     public void startDemo( ) {
@@ -30,4 +47,32 @@ public class MediaScanController {
 
     }
 
+    @RequestMapping(path = "/api/prefetch", produces = MediaType.APPLICATION_JSON_VALUE )
+    public Map<String, Object> prefetchStatistics() {
+        return thumbnailPrefetcher.getStatistics();
+    }
+
+    @RequestMapping(path = "/api/latency", produces = MediaType.APPLICATION_JSON_VALUE )
+    public Map<String, Object> latency() {
+        Map<String, Object> result = latencyTracker.getStatistics();
+        result.put( "lookAheadMs", mediaStreamService.getLookAheadMs() );
+        result.put( "targetLookAheadMs", mediaStreamService.getTargetLookAheadMs() );
+        return result;
+    }
+
+    @RequestMapping(path = "/api/cache", produces = MediaType.APPLICATION_JSON_VALUE )
+    public Map<String, Object> cacheStatistics() {
+        return colorCache.getStatistics();
+    }
+
+    @RequestMapping(path = "/api/stream", produces = MediaType.APPLICATION_JSON_VALUE )
+    public Map<String, Object> streamStatistics() {
+        return colorBroadcaster.getStatistics();
+    }
+
+    @RequestMapping(path = "/api/breakers", produces = MediaType.APPLICATION_JSON_VALUE )
+    public Map<String, Object> breakers() {
+        return circuitBreakers.getStatistics();
+    }
+
 }
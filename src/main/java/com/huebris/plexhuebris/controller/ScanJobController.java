@@ -0,0 +1,55 @@
+package com.huebris.plexhuebris.controller;
+
+import com.huebris.plexhuebris.service.ScanJob;
+import com.huebris.plexhuebris.service.ScanJobScheduler;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+@RestController
+public class ScanJobController {
+
+    public ScanJobController(ScanJobScheduler scanJobScheduler) {
+        this.scanJobScheduler = scanJobScheduler;
+    }
+
+    private ScanJobScheduler scanJobScheduler;
+
+    @RequestMapping(path = "/api/scan/jobs", method = RequestMethod.POST, produces = MediaType.APPLICATION_JSON_VALUE )
+    public Map<String, Object> submit(@RequestParam("section") long section,
+                                      @RequestParam(name = "folder", required = false) String folder,
+                                      @RequestParam(name = "force", defaultValue = "false") boolean force) {
+        return scanJobScheduler.submit( section, folder, force ).getStatistics();
+    }
+
+    @RequestMapping(path = "/api/scan/jobs", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE )
+    public List<Map<String, Object>> jobs() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for ( ScanJob job : scanJobScheduler.getJobs() ) {
+            result.add( job.getStatistics() );
+        }
+        return result;
+    }
+
+    @RequestMapping(path = "/api/scan/jobs/{id}", method = RequestMethod.GET, produces = MediaType.APPLICATION_JSON_VALUE )
+    public ResponseEntity<Map<String, Object>> job(@PathVariable("id") long id) {
+        ScanJob job = scanJobScheduler.getJob( id );
+        return job == null ? ResponseEntity.notFound().build() : ResponseEntity.ok( job.getStatistics() );
+    }
+
+    @RequestMapping(path = "/api/scan/jobs/{id}", method = RequestMethod.DELETE, produces = MediaType.APPLICATION_JSON_VALUE )
+    public ResponseEntity<Map<String, Object>> cancel(@PathVariable("id") long id) {
+        if ( !scanJobScheduler.cancel( id ) ) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok( scanJobScheduler.getJob( id ).getStatistics() );
+    }
+}
@@ -0,0 +1,409 @@
+package com.huebris.plexhuebris.index;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.awt.*;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the analyzed zone colors of recently seen thumbnails, keyed by media part and offset
+ * rounded down to {@code huebris.cache.bucket-ms}, so seeking back, rewatching or a second client
+ * on the same episode skips both the Plex transcode and the analysis. Keys, light IDs and packed
+ * RGB values live in primitive arrays per slot, found through an open addressing table and kept in
+ * recency order by a linked list of slot numbers; the least recently used entry is evicted once
+ * {@code huebris.cache.max-entries} is reached. With {@code huebris.cache.snapshot} set, the
+ * entries are written there every {@code huebris.cache.snapshot-interval-ms} while they change and
+ * on shutdown, and read back on start.
+ */
+@Component
+public class ColorCache {
+    private static final Logger log = LoggerFactory.getLogger( ColorCache.class );
+
+    static final int MAGIC = 0x50484343;   // "PHCC"
+    static final int VERSION = 1;
+
+    private static final int BUCKET_BITS = 24;
+    private static final int NONE = -1;
+
+    private final long bucketMs;
+    private final int maxEntries;
+    private final Path snapshot;
+    private final ScheduledExecutorService snapshotter;
+
+    /** Key to slot by linear probing; a slot of {@link #NONE} marks an empty bucket. */
+    private final long[] tableKeys;
+    private final int[] tableSlots;
+    private final int tableMask;
+
+    private final long[] slotKeys;
+    private final int[][] slotLights;
+    private final int[][] slotColors;
+    /** The next more and the next less recently used slot, {@link #NONE} at either end. */
+    private final int[] newer;
+    private final int[] older;
+    private int eldest = NONE;
+    private int newest = NONE;
+    private int size;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    /** Puts so far, and how many of them the snapshot on disk has seen. */
+    private long changes;
+    private long savedChanges;
+
+    public ColorCache(MeterRegistry meterRegistry,
+                      @Value("${huebris.cache.bucket-ms:${plex.prefetch.interval-ms:2000}}") long bucketMs,
+                      @Value("${huebris.cache.max-entries:4096}") int maxEntries,
+                      @Value("${huebris.cache.snapshot:}") String snapshot,
+                      @Value("${huebris.cache.snapshot-interval-ms:60000}") long snapshotIntervalMs) {
+        this.bucketMs = Math.max( 1, bucketMs );
+        this.maxEntries = Math.max( 1, maxEntries );
+        this.snapshot = snapshot.isEmpty() ? null : Paths.get( snapshot );
+        // At most half full, so probes stay short.
+        int tableSize = Integer.highestOneBit( this.maxEntries ) << 2;
+        this.tableKeys = new long[tableSize];
+        this.tableSlots = new int[tableSize];
+        this.tableMask = tableSize - 1;
+        Arrays.fill( tableSlots, NONE );
+        this.slotKeys = new long[this.maxEntries];
+        this.slotLights = new int[this.maxEntries][];
+        this.slotColors = new int[this.maxEntries][];
+        this.newer = new int[this.maxEntries];
+        this.older = new int[this.maxEntries];
+        meterRegistry.gauge( "huebris.cache.hit-ratio", this, ColorCache::getHitRatio );
+
+        if ( this.snapshot == null || snapshotIntervalMs <= 0 ) {
+            this.snapshotter = null;
+        } else {
+            this.snapshotter = Executors.newSingleThreadScheduledExecutor( r -> {
+                Thread thread = new Thread( r, "color-cache-snapshot" );
+                thread.setDaemon( true );
+                return thread;
+            } );
+            snapshotter.scheduleWithFixedDelay( this::saveIfChanged, snapshotIntervalMs, snapshotIntervalMs, TimeUnit.MILLISECONDS );
+        }
+    }
+
+    @PostConstruct
+    public void load() {
+        if ( snapshot == null || !Files.isRegularFile( snapshot ) ) {
+            return;
+        }
+        try {
+            int count = read( snapshot );
+            log.info( "Loaded " + count + " cached colors from " + snapshot );
+        } catch (IOException e) {
+            log.warn( "Ignoring unreadable color cache snapshot " + snapshot + ": " + e.getMessage() );
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        if ( snapshotter != null ) {
+            snapshotter.shutdownNow();
+        }
+        save();
+    }
+
+    public void save() {
+        if ( snapshot == null ) {
+            return;
+        }
+        try {
+            int count = write( snapshot );
+            log.info( "Saved " + count + " cached colors to " + snapshot );
+        } catch (IOException e) {
+            log.error( "Could not save color cache snapshot " + snapshot + ": " + e.getMessage() );
+        }
+    }
+
+    /**
+     * Writes the snapshot when anything was put since the last one, so a crash only loses the
+     * colors analyzed since.
+     */
+    private void saveIfChanged() {
+        synchronized ( this ) {
+            if ( changes == savedChanges ) {
+                return;
+            }
+        }
+        try {
+            int count = write( snapshot );
+            log.debug( "Saved " + count + " cached colors to " + snapshot );
+        } catch (IOException e) {
+            log.warn( "Could not save color cache snapshot " + snapshot + ": " + e.getMessage() );
+        }
+    }
+
+    /**
+     * The cached colors of the given lights, or null unless every one of them was cached for the
+     * part's offset bucket.
+     */
+    public synchronized Map<Integer, Color> get(long partId, long offsetMs, Collection<Integer> lights) {
+        int slot = touch( key( partId, offsetMs ) );
+        Map<Integer, Color> result = slot == NONE ? null : colorsOf( slot, lights );
+        if ( result == null ) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return result;
+    }
+
+    /**
+     * True when {@link #get} would hit, without counting towards the hit ratio or making the
+     * entry any more recently used.
+     */
+    public synchronized boolean contains(long partId, long offsetMs, Collection<Integer> lights) {
+        int slot = find( key( partId, offsetMs ) );
+        return slot != NONE && colorsOf( slot, lights ) != null;
+    }
+
+    public synchronized void put(long partId, long offsetMs, Map<Integer, Color> colors) {
+        put( key( partId, offsetMs ), colors );
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized double getHitRatio() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double)hits / total;
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put( "hits", hits );
+        result.put( "misses", misses );
+        result.put( "hitRatio", getHitRatio() );
+        result.put( "entries", size );
+        result.put( "maxEntries", maxEntries );
+        result.put( "evictions", evictions );
+        result.put( "bucketMs", bucketMs );
+        return result;
+    }
+
+    private long key(long partId, long offsetMs) {
+        long bucket = Math.max( 0, offsetMs ) / bucketMs;
+        return (partId << BUCKET_BITS) | (bucket & ((1L << BUCKET_BITS) - 1));
+    }
+
+    /**
+     * The key's slot, now the most recently used one; {@link #NONE} when the key is not cached.
+     */
+    private int touch(long key) {
+        int slot = find( key );
+        if ( slot != NONE && slot != newest ) {
+            unlink( slot );
+            linkNewest( slot );
+        }
+        return slot;
+    }
+
+    private void put(long key, Map<Integer, Color> colors) {
+        changes++;
+        int slot = touch( key );
+        if ( slot == NONE ) {
+            if ( size < maxEntries ) {
+                slot = size++;
+            } else {
+                slot = eldest;
+                remove( slotKeys[slot] );
+                unlink( slot );
+                evictions++;
+            }
+            slotKeys[slot] = key;
+            insert( key, slot );
+            linkNewest( slot );
+        }
+        int[] lights = slotLights[slot];
+        int[] rgb = slotColors[slot];
+        if ( lights == null || lights.length != colors.size() ) {
+            lights = slotLights[slot] = new int[colors.size()];
+            rgb = slotColors[slot] = new int[colors.size()];
+        }
+        int i = 0;
+        for ( Map.Entry<Integer, Color> entry : colors.entrySet() ) {
+            lights[i] = entry.getKey();
+            rgb[i] = entry.getValue().getRGB() & 0xffffff;
+            i++;
+        }
+    }
+
+    private int bucketOf(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int)(hash ^ (hash >>> 32)) & tableMask;
+    }
+
+    private int find(long key) {
+        for ( int i = bucketOf( key ); tableSlots[i] != NONE; i = (i + 1) & tableMask ) {
+            if ( tableKeys[i] == key ) {
+                return tableSlots[i];
+            }
+        }
+        return NONE;
+    }
+
+    private void insert(long key, int slot) {
+        int i = bucketOf( key );
+        while ( tableSlots[i] != NONE ) {
+            i = (i + 1) & tableMask;
+        }
+        tableKeys[i] = key;
+        tableSlots[i] = slot;
+    }
+
+    /**
+     * Empties the key's bucket and shifts later entries of its probe run back into the hole, so
+     * lookups never stop short of them.
+     */
+    private void remove(long key) {
+        int hole = bucketOf( key );
+        while ( tableKeys[hole] != key || tableSlots[hole] == NONE ) {
+            hole = (hole + 1) & tableMask;
+        }
+        tableSlots[hole] = NONE;
+        for ( int i = (hole + 1) & tableMask; tableSlots[i] != NONE; i = (i + 1) & tableMask ) {
+            int home = bucketOf( tableKeys[i] );
+            // Movable unless its home lies between the hole and where it sits now.
+            if ( ((i - home) & tableMask) >= ((i - hole) & tableMask) ) {
+                tableKeys[hole] = tableKeys[i];
+                tableSlots[hole] = tableSlots[i];
+                tableSlots[i] = NONE;
+                hole = i;
+            }
+        }
+    }
+
+    private void unlink(int slot) {
+        if ( older[slot] == NONE ) {
+            eldest = newer[slot];
+        } else {
+            newer[older[slot]] = newer[slot];
+        }
+        if ( newer[slot] == NONE ) {
+            newest = older[slot];
+        } else {
+            older[newer[slot]] = older[slot];
+        }
+    }
+
+    private void linkNewest(int slot) {
+        older[slot] = newest;
+        newer[slot] = NONE;
+        if ( newest == NONE ) {
+            eldest = slot;
+        } else {
+            newer[newest] = slot;
+        }
+        newest = slot;
+    }
+
+    private Map<Integer, Color> colorsOf(int slot, Collection<Integer> wanted) {
+        int[] lights = slotLights[slot];
+        int[] rgb = slotColors[slot];
+        Map<Integer, Color> result = new LinkedHashMap<>();
+        for ( Integer light : wanted ) {
+            int index = indexOf( lights, light );
+            if ( index < 0 ) {
+                return null;
+            }
+            result.put( light, new Color( rgb[index] ) );
+        }
+        return result;
+    }
+
+    private static int indexOf(int[] values, int value) {
+        for ( int i = 0; i < values.length; i++ ) {
+            if ( values[i] == value ) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    synchronized int write(Path path) throws IOException {
+        Path temporary = path.resolveSibling( path.getFileName() + ".tmp" );
+        if ( path.getParent() != null ) {
+            Files.createDirectories( path.getParent() );
+        }
+        try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( temporary ) ) ) ) {
+            out.writeInt( MAGIC );
+            out.writeInt( VERSION );
+            out.writeLong( bucketMs );
+            out.writeInt( size );
+            // Least recently used first, so reading them back in order restores the recency.
+            for ( int slot = eldest; slot != NONE; slot = newer[slot] ) {
+                int[] lights = slotLights[slot];
+                int[] rgb = slotColors[slot];
+                out.writeLong( slotKeys[slot] );
+                out.writeShort( lights.length );
+                for ( int i = 0; i < lights.length; i++ ) {
+                    out.writeInt( lights[i] );
+                    out.writeInt( rgb[i] );
+                }
+            }
+        }
+        Files.move( temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        savedChanges = changes;
+        return size;
+    }
+
+    synchronized int read(Path path) throws IOException {
+        try ( DataInputStream in = new DataInputStream( new BufferedInputStream( Files.newInputStream( path ) ) ) ) {
+            if ( in.readInt() != MAGIC || in.readInt() != VERSION ) {
+                throw new IOException( "Not a color cache snapshot" );
+            }
+            if ( in.readLong() != bucketMs ) {
+                // Keys of another bucket size point at the wrong offsets.
+                return 0;
+            }
+            int count = in.readInt();
+            for ( int n = 0; n < count; n++ ) {
+                long key = in.readLong();
+                int size = in.readShort();
+                Map<Integer, Color> colors = new LinkedHashMap<>();
+                for ( int i = 0; i < size; i++ ) {
+                    colors.put( in.readInt(), new Color( in.readInt() ) );
+                }
+                put( key, colors );
+            }
+            savedChanges = changes;
+            return count;
+        }
+    }
+
+    /** Cached keys, least recently used first. */
+    synchronized List<Long> keys() {
+        List<Long> keys = new ArrayList<>( size );
+        for ( int slot = eldest; slot != NONE; slot = newer[slot] ) {
+            keys.add( slotKeys[slot] );
+        }
+        return keys;
+    }
+}
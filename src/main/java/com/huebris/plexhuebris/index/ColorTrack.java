@@ -0,0 +1,179 @@
+package com.huebris.plexhuebris.index;
+
+import java.awt.*;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A precomputed, memory-mapped color track for one Plex media part.
+ * <p>
+ * Layout (big-endian): a header of magic {@code PHCT}, version, light count, sample interval
+ * in ms, record count and the light IDs, followed by fixed-size records of a timestamp in ms
+ * and one RGB triple per light. Records are written at every multiple of the interval, so the
+ * record for any offset is found by a single division.
+ * </p>
+ * <p>
+ * {@link #close()} unmaps the file right away instead of leaving it to the garbage collector;
+ * lookups on a closed track find nothing.
+ * </p>
+ */
+public class ColorTrack implements Closeable {
+
+    static final int MAGIC = 0x50484354;
+    static final short VERSION = 1;
+
+    private final ByteBuffer buffer;
+    private final List<Integer> lights;
+    private final int intervalMs;
+    private final int recordCount;
+    private final int recordSize;
+    private final int dataOffset;
+
+    /** Held for reading by lookups, so the buffer is never unmapped under one. */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private boolean closed;
+
+    ColorTrack(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if ( buffer.getInt( 0 ) != MAGIC || buffer.getShort( 4 ) != VERSION ) {
+            throw new IOException( "Not a color track" );
+        }
+        int lightCount = buffer.getShort( 6 );
+        this.intervalMs = buffer.getInt( 8 );
+        this.recordCount = buffer.getInt( 12 );
+        List<Integer> ids = new ArrayList<>( lightCount );
+        for ( int i = 0; i < lightCount; i++ ) {
+            ids.add( buffer.getInt( 16 + i * 4 ) );
+        }
+        this.lights = Collections.unmodifiableList( ids );
+        this.recordSize = recordSize( lightCount );
+        this.dataOffset = headerSize( lightCount );
+        if ( intervalMs <= 0 || buffer.limit() < dataOffset + (long) recordCount * recordSize ) {
+            throw new IOException( "Truncated color track" );
+        }
+    }
+
+    public static ColorTrack open(Path path) throws IOException {
+        try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+            // The mapping stays valid after the channel is closed.
+            MappedByteBuffer buffer = channel.map( FileChannel.MapMode.READ_ONLY, 0, channel.size() );
+            return new ColorTrack( buffer );
+        }
+    }
+
+    static int headerSize(int lightCount) {
+        return 16 + lightCount * 4;
+    }
+
+    static int recordSize(int lightCount) {
+        return 4 + lightCount * 3;
+    }
+
+    public List<Integer> getLights() {
+        return lights;
+    }
+
+    public int getIntervalMs() {
+        return intervalMs;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public long getDurationMs() {
+        return (long) recordCount * intervalMs;
+    }
+
+    /**
+     * The colors recorded for the sample at or just before {@code offsetMs}, or null when the
+     * offset lies beyond the end of the track.
+     */
+    public Map<Integer, Color> colorsAt(long offsetMs) {
+        long index = Math.max( 0, offsetMs ) / intervalMs;
+        if ( index >= recordCount ) {
+            return null;
+        }
+        int position = dataOffset + (int) index * recordSize + 4;
+        Map<Integer, Color> result = new LinkedHashMap<>();
+        lock.readLock().lock();
+        try {
+            if ( closed ) {
+                return null;
+            }
+            for ( Integer light : lights ) {
+                result.put( light, new Color( buffer.get( position ) & 0xff, buffer.get( position + 1 ) & 0xff, buffer.get( position + 2 ) & 0xff ) );
+                position += 3;
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return result;
+    }
+
+    public long timestampAt(int index) {
+        lock.readLock().lock();
+        try {
+            if ( closed ) {
+                throw new IllegalStateException( "Color track is closed" );
+            }
+            return buffer.getInt( dataOffset + index * recordSize );
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.writeLock().lock();
+        try {
+            if ( closed ) {
+                return;
+            }
+            closed = true;
+            if ( buffer instanceof MappedByteBuffer ) {
+                unmap( buffer );
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Releases the mapping through the JDK's cleaner: the buffer's own on Java 8, Unsafe's on
+     * later versions. Where neither is reachable the garbage collector still gets to it.
+     */
+    private static void unmap(ByteBuffer buffer) {
+        try {
+            Method cleanerMethod = buffer.getClass().getMethod( "cleaner" );
+            cleanerMethod.setAccessible( true );
+            Object cleaner = cleanerMethod.invoke( buffer );
+            cleaner.getClass().getMethod( "clean" ).invoke( cleaner );
+            return;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Not Java 8; try Unsafe.invokeCleaner below.
+        }
+        try {
+            Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+            Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+            theUnsafe.setAccessible( true );
+            unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class ).invoke( theUnsafe.get( null ), buffer );
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // Left to the garbage collector.
+        }
+    }
+}
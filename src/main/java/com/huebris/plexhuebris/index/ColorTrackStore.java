@@ -0,0 +1,141 @@
+package com.huebris.plexhuebris.index;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps one {@link ColorTrack} file per Plex media part ID in {@code huebris.index.dir} and
+ * hands out memory-mapped tracks for playback. Both the mapped tracks and the parts found to have
+ * none are remembered until a writer commits a new track for the part.
+ */
+@Component
+public class ColorTrackStore {
+    private static final Logger log = LoggerFactory.getLogger( ColorTrackStore.class );
+
+    private final Path directory;
+    private final int intervalMs;
+
+    private final Map<Long, ColorTrack> tracks = new ConcurrentHashMap<>();
+    /** Parts without a usable track, so playback does not check the disk on every tick. */
+    private final Set<Long> missing = ConcurrentHashMap.newKeySet();
+    private final AtomicLong commits = new AtomicLong();
+
+    public ColorTrackStore(@Value("${huebris.index.dir:${user.home}/.plex-huebris/index}") String directory,
+                           @Value("${huebris.index.interval-ms:250}") int intervalMs) {
+        this.directory = Paths.get( directory );
+        this.intervalMs = intervalMs;
+    }
+
+    public int getIntervalMs() {
+        return intervalMs;
+    }
+
+    /**
+     * The track for the part, or null if it has not been indexed.
+     */
+    public ColorTrack find(long partId) {
+        while ( true ) {
+            ColorTrack track = tracks.get( partId );
+            if ( track != null || missing.contains( partId ) ) {
+                return track;
+            }
+            // Mapped outside the map's locks; the loser of a race unmaps its copy again.
+            long generation = commits.get();
+            track = open( partId, generation );
+            if ( track == null ) {
+                return null;
+            }
+            ColorTrack existing = tracks.putIfAbsent( partId, track );
+            if ( existing != null ) {
+                track.close();
+                return existing;
+            }
+            if ( commits.get() == generation ) {
+                return track;
+            }
+            // A commit may have replaced the file while it was being mapped; look again.
+            if ( tracks.remove( partId, track ) ) {
+                track.close();
+            }
+        }
+    }
+
+    /**
+     * True when the part has been indexed, without mapping its track.
+     */
+    public boolean contains(long partId) {
+        if ( tracks.containsKey( partId ) ) {
+            return true;
+        }
+        if ( missing.contains( partId ) ) {
+            return false;
+        }
+        long generation = commits.get();
+        if ( Files.isRegularFile( pathFor( partId ) ) ) {
+            return true;
+        }
+        markMissing( partId, generation );
+        return false;
+    }
+
+    /**
+     * A writer for the part's track. Until it commits, lookups keep returning the previous track.
+     */
+    public ColorTrackWriter createWriter(long partId, List<Integer> lights) throws IOException {
+        Files.createDirectories( directory );
+        return new ColorTrackWriter( pathFor( partId ), lights, intervalMs, () -> committed( partId ) );
+    }
+
+    private ColorTrack open(long partId, long generation) {
+        Path path = pathFor( partId );
+        try {
+            if ( Files.isRegularFile( path ) ) {
+                ColorTrack track = ColorTrack.open( path );
+                log.info( "Using color track for part " + partId + " (" + track.getRecordCount() + " samples)" );
+                return track;
+            }
+        } catch (IOException e) {
+            log.error( "Ignoring unreadable color track " + path + ": " + e.getMessage() );
+        }
+        markMissing( partId, generation );
+        return null;
+    }
+
+    /**
+     * Remembers that the part has no usable track, unless one was committed since the lookup began.
+     */
+    private void markMissing(long partId, long generation) {
+        missing.add( partId );
+        if ( commits.get() != generation ) {
+            missing.remove( partId );
+        }
+    }
+
+    /**
+     * The new track is in place; whatever was mapped or found missing before is stale.
+     */
+    private void committed(long partId) {
+        commits.incrementAndGet();
+        missing.remove( partId );
+        ColorTrack stale = tracks.remove( partId );
+        if ( stale != null ) {
+            stale.close();
+        }
+    }
+
+    private Path pathFor(long partId) {
+        return directory.resolve( partId + ".track" );
+    }
+}
@@ -0,0 +1,101 @@
+package com.huebris.plexhuebris.index;
+
+import java.awt.*;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a {@link ColorTrack} from analyzed frames that arrive in timestamp order. Frames do
+ * not need to line up with the sample interval: every sample point is filled with the most
+ * recent frame at or before it. The track only appears under its final name once
+ * {@link #commit()} succeeds, so a crashed or aborted scan never leaves a half-written index.
+ */
+public class ColorTrackWriter implements Closeable {
+
+    private final Path target;
+    private final Path temporary;
+    private final List<Integer> lights;
+    private final int intervalMs;
+    private final DataOutputStream out;
+    private final Runnable onCommit;
+
+    private Map<Integer, Color> last;
+    private long nextSampleMs;
+    private int recordCount;
+    private boolean committed;
+
+    /**
+     * @param onCommit runs once the track is in place under its final name
+     */
+    ColorTrackWriter(Path target, List<Integer> lights, int intervalMs, Runnable onCommit) throws IOException {
+        this.target = target;
+        this.onCommit = onCommit;
+        this.temporary = target.resolveSibling( target.getFileName() + ".tmp" );
+        this.lights = lights;
+        this.intervalMs = intervalMs;
+        this.out = new DataOutputStream( new BufferedOutputStream( Files.newOutputStream( temporary ) ) );
+
+        out.writeInt( ColorTrack.MAGIC );
+        out.writeShort( ColorTrack.VERSION );
+        out.writeShort( lights.size() );
+        out.writeInt( intervalMs );
+        out.writeInt( 0 );  // record count, patched in commit()
+        for ( Integer light : lights ) {
+            out.writeInt( light );
+        }
+    }
+
+    public void append(long timestampMs, Map<Integer, Color> colors) throws IOException {
+        while ( nextSampleMs <= timestampMs ) {
+            // Sample points strictly before this frame still show the previous one.
+            write( nextSampleMs, nextSampleMs < timestampMs && last != null ? last : colors );
+            nextSampleMs += intervalMs;
+        }
+        last = colors;
+    }
+
+    public int getRecordCount() {
+        return recordCount;
+    }
+
+    public void commit() throws IOException {
+        if ( last != null ) {
+            write( nextSampleMs, last );
+        }
+        out.close();
+        try ( RandomAccessFile file = new RandomAccessFile( temporary.toFile(), "rw" ) ) {
+            file.seek( 12 );
+            file.writeInt( recordCount );
+        }
+        Files.move( temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+        committed = true;
+        onCommit.run();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if ( !committed ) {
+            out.close();
+            Files.deleteIfExists( temporary );
+        }
+    }
+
+    private void write(long timestampMs, Map<Integer, Color> colors) throws IOException {
+        out.writeInt( (int) timestampMs );
+        for ( Integer light : lights ) {
+            Color color = colors.getOrDefault( light, Color.BLACK );
+            out.writeByte( color.getRed() );
+            out.writeByte( color.getGreen() );
+            out.writeByte( color.getBlue() );
+        }
+        recordCount++;
+    }
+}
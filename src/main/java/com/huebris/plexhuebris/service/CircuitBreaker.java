@@ -0,0 +1,100 @@
+package com.huebris.plexhuebris.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Stops calling an endpoint that keeps failing. After {@code failureThreshold} failures in a row
+ * the breaker opens and every call is rejected right away for {@code openMs}; then a single trial
+ * call is let through, which closes the breaker on success and opens it again on failure.
+ */
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final LongSupplier nanoTime;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean trialInFlight;
+
+    private long successes;
+    private long failures;
+    private long rejected;
+    private long opened;
+
+    public CircuitBreaker(String name, int failureThreshold, long openMs) {
+        this( name, failureThreshold, openMs, System::nanoTime );
+    }
+
+    CircuitBreaker(String name, int failureThreshold, long openMs, LongSupplier nanoTime) {
+        this.name = name;
+        this.failureThreshold = Math.max( 1, failureThreshold );
+        this.openNanos = TimeUnit.MILLISECONDS.toNanos( Math.max( 0, openMs ) );
+        this.nanoTime = nanoTime;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * True when the call may go ahead; it must then report back through {@link #onSuccess()}
+     * or {@link #onFailure()}.
+     */
+    public synchronized boolean tryAcquire() {
+        if ( state == State.OPEN && nanoTime.getAsLong() - openedAt >= openNanos ) {
+            state = State.HALF_OPEN;
+        }
+        if ( state == State.CLOSED || state == State.HALF_OPEN && !trialInFlight ) {
+            trialInFlight = state == State.HALF_OPEN;
+            return true;
+        }
+        rejected++;
+        return false;
+    }
+
+    public synchronized void onSuccess() {
+        successes++;
+        consecutiveFailures = 0;
+        trialInFlight = false;
+        state = State.CLOSED;
+    }
+
+    public synchronized void onFailure() {
+        failures++;
+        consecutiveFailures++;
+        trialInFlight = false;
+        if ( state == State.HALF_OPEN || consecutiveFailures >= failureThreshold ) {
+            if ( state != State.OPEN ) {
+                opened++;
+            }
+            state = State.OPEN;
+            openedAt = nanoTime.getAsLong();
+        }
+    }
+
+    public synchronized State getState() {
+        if ( state == State.OPEN && nanoTime.getAsLong() - openedAt >= openNanos ) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put( "state", getState() );
+        result.put( "consecutiveFailures", consecutiveFailures );
+        result.put( "successes", successes );
+        result.put( "failures", failures );
+        result.put( "rejected", rejected );
+        result.put( "opened", opened );
+        return result;
+    }
+}
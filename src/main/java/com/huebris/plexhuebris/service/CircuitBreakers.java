@@ -0,0 +1,44 @@
+package com.huebris.plexhuebris.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One {@link CircuitBreaker} per outbound endpoint, e.g. the Hue bridge or the Plex thumbnail
+ * transcoder, all opening after {@code huebris.breaker.failure-threshold} failures in a row for
+ * {@code huebris.breaker.open-ms}.
+ */
+@Component
+public class CircuitBreakers {
+
+    public static final String HUE = "hue";
+    public static final String PLEX_THUMBNAIL = "plex.thumbnail";
+    public static final String PLEX_SESSIONS = "plex.sessions";
+
+    private final int failureThreshold;
+    private final long openMs;
+
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    public CircuitBreakers(@Value("${huebris.breaker.failure-threshold:5}") int failureThreshold,
+                           @Value("${huebris.breaker.open-ms:10000}") long openMs) {
+        this.failureThreshold = failureThreshold;
+        this.openMs = openMs;
+    }
+
+    public CircuitBreaker forEndpoint(String endpoint) {
+        return breakers.computeIfAbsent( endpoint, e -> new CircuitBreaker( e, failureThreshold, openMs ) );
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new TreeMap<>();
+        for ( CircuitBreaker breaker : breakers.values() ) {
+            result.put( breaker.getName(), breaker.getStatistics() );
+        }
+        return result;
+    }
+}
@@ -0,0 +1,301 @@
+package com.huebris.plexhuebris.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.awt.*;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fans every computed color frame out to live subscribers, e.g. the {@code /ws/colors} WebSocket.
+ * A frame is encoded once and offered to each subscriber's ring of {@code huebris.stream.buffer}
+ * frames; when a subscriber falls behind its oldest frame is dropped, so publishing never blocks.
+ * A shared pool of {@code huebris.stream.threads} senders drains the rings, at most one sender per
+ * subscriber at a time. A send still running after {@code huebris.stream.send-timeout-ms}, e.g. to
+ * a client whose TCP window has stalled, gets its sender interrupted and the subscriber dropped, so
+ * a few stuck clients cannot hold every sender and starve the rest.
+ */
+@Component
+public class ColorBroadcaster {
+    private static final Logger log = LoggerFactory.getLogger( ColorBroadcaster.class );
+
+    /** Where a subscriber's frames go; called by one sender at a time. */
+    public interface Sink {
+        /**
+         * Sends the frame; the sender is interrupted if this takes longer than the send timeout.
+         */
+        void send(String frame) throws IOException;
+
+        /**
+         * Called once the subscriber was dropped because sending failed or took too long.
+         */
+        default void close() {
+        }
+    }
+
+    private final LightZones lightZones;
+    private final int bufferSize;
+    private final long sendTimeoutNanos;
+    private final ExecutorService senders;
+    private final ScheduledExecutorService watchdog;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Map<String, Subscriber> subscribers = new ConcurrentHashMap<>();
+
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong stalled = new AtomicLong();
+    private final Counter droppedCounter;
+
+    public ColorBroadcaster(LightZones lightZones, MeterRegistry meterRegistry,
+                            @Value("${huebris.stream.buffer:8}") int bufferSize,
+                            @Value("${huebris.stream.threads:4}") int threads,
+                            @Value("${huebris.stream.send-timeout-ms:2000}") long sendTimeoutMs) {
+        this.lightZones = lightZones;
+        this.bufferSize = Math.max( 1, bufferSize );
+        this.sendTimeoutNanos = TimeUnit.MILLISECONDS.toNanos( Math.max( 1, sendTimeoutMs ) );
+        this.senders = Executors.newFixedThreadPool( Math.max( 1, threads ), r -> {
+            Thread thread = new Thread( r, "color-stream-sender" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        this.watchdog = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread thread = new Thread( r, "color-stream-watchdog" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        long checkMs = Math.max( 10, sendTimeoutMs / 4 );
+        watchdog.scheduleWithFixedDelay( this::dropStalledSubscribers, checkMs, checkMs, TimeUnit.MILLISECONDS );
+        this.droppedCounter = meterRegistry.counter( "huebris.stream.dropped" );
+        meterRegistry.gauge( "huebris.stream.subscribers", subscribers, Map::size );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        watchdog.shutdownNow();
+        senders.shutdownNow();
+        subscribers.clear();
+    }
+
+    /**
+     * Starts sending frames to the sink, only the given player's when player is not null.
+     */
+    public void subscribe(String id, String player, Sink sink) {
+        subscribers.put( id, new Subscriber( id, player, sink ) );
+        log.info( "Color stream subscriber " + id + (player == null ? "" : " for " + player) + " connected" );
+    }
+
+    public void unsubscribe(String id) {
+        if ( subscribers.remove( id ) != null ) {
+            log.info( "Color stream subscriber " + id + " disconnected" );
+        }
+    }
+
+    /**
+     * Offers the frame to every interested subscriber and returns right away.
+     *
+     * @param source   {@code session} for a Plex player's room, {@code scan} for a local file
+     * @param player   the player, or the file for a scan
+     * @param offsetMs media position the colors belong to
+     */
+    public void publish(String source, String player, long offsetMs, Map<Integer, Color> colors) {
+        if ( subscribers.isEmpty() ) {
+            return;
+        }
+        String frame;
+        try {
+            frame = encode( source, player, offsetMs, colors );
+        } catch (JsonProcessingException e) {
+            log.error( e.getMessage(), e );
+            return;
+        }
+        published.incrementAndGet();
+        for ( Subscriber subscriber : subscribers.values() ) {
+            if ( subscriber.player == null || subscriber.player.equals( player ) ) {
+                subscriber.offer( frame );
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put( "subscribers", subscribers.size() );
+        result.put( "published", published.get() );
+        result.put( "delivered", delivered.get() );
+        result.put( "dropped", dropped.get() );
+        result.put( "failed", failed.get() );
+        result.put( "stalled", stalled.get() );
+        result.put( "buffer", bufferSize );
+        return result;
+    }
+
+    private void dropStalledSubscribers() {
+        long now = System.nanoTime();
+        for ( Subscriber subscriber : subscribers.values() ) {
+            if ( subscriber.stall( now ) ) {
+                stalled.incrementAndGet();
+                subscriber.drop( "sending took longer than " + TimeUnit.NANOSECONDS.toMillis( sendTimeoutNanos ) + " ms" );
+            }
+        }
+    }
+
+    String encode(String source, String player, long offsetMs, Map<Integer, Color> colors) throws JsonProcessingException {
+        List<Map<String, Object>> lights = new ArrayList<>( colors.size() );
+        for ( Map.Entry<Integer, Color> entry : colors.entrySet() ) {
+            Map<String, Object> light = new LinkedHashMap<>();
+            light.put( "light", entry.getKey() );
+            light.put( "zone", lightZones.getZones().getOrDefault( String.valueOf( entry.getKey() ), "full" ) );
+            light.put( "color", String.format( "#%06x", entry.getValue().getRGB() & 0xffffff ) );
+            lights.add( light );
+        }
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put( "source", source );
+        frame.put( "player", player );
+        frame.put( "offsetMs", offsetMs );
+        frame.put( "lights", lights );
+        return objectMapper.writeValueAsString( frame );
+    }
+
+    private class Subscriber {
+        private final String id;
+        private final String player;
+        private final Sink sink;
+        private final AtomicBoolean draining = new AtomicBoolean();
+
+        // The send in progress, guarded by this.
+        private Thread sendingThread;
+        private long sendStartedAt;
+        private boolean timedOut;
+
+        // Ring of pending frames, guarded by this.
+        private final String[] frames = new String[bufferSize];
+        private int head;
+        private int size;
+
+        private Subscriber(String id, String player, Sink sink) {
+            this.id = id;
+            this.player = player;
+            this.sink = sink;
+        }
+
+        private void offer(String frame) {
+            synchronized (this) {
+                if ( size == frames.length ) {
+                    frames[head] = null;
+                    head = (head + 1) % frames.length;
+                    size--;
+                    dropped.incrementAndGet();
+                    droppedCounter.increment();
+                }
+                frames[(head + size) % frames.length] = frame;
+                size++;
+            }
+            if ( draining.compareAndSet( false, true ) ) {
+                try {
+                    senders.execute( this::drain );
+                } catch (RejectedExecutionException e) {
+                    // Shutting down.
+                    draining.set( false );
+                }
+            }
+        }
+
+        private synchronized String poll() {
+            if ( size == 0 ) {
+                return null;
+            }
+            String frame = frames[head];
+            frames[head] = null;
+            head = (head + 1) % frames.length;
+            size--;
+            return frame;
+        }
+
+        private synchronized boolean isEmpty() {
+            return size == 0;
+        }
+
+        private void drain() {
+            do {
+                String frame;
+                while ( (frame = poll()) != null ) {
+                    beginSend();
+                    try {
+                        sink.send( frame );
+                    } catch (IOException | RuntimeException e) {
+                        if ( endSend() ) {
+                            failed.incrementAndGet();
+                            drop( e.getMessage() );
+                        }
+                        return;
+                    }
+                    if ( !endSend() ) {
+                        // The watchdog gave up on this send and dropped the subscriber.
+                        return;
+                    }
+                    delivered.incrementAndGet();
+                }
+                draining.set( false );
+                // A frame offered after the last poll but before the flag was cleared found it still set.
+            } while ( !isEmpty() && draining.compareAndSet( false, true ) );
+        }
+
+        private synchronized void beginSend() {
+            sendingThread = Thread.currentThread();
+            sendStartedAt = System.nanoTime();
+        }
+
+        /**
+         * Clears the send, and any interrupt the watchdog aimed at it, before the thread goes back
+         * to the pool; false when the watchdog already gave up on the send.
+         */
+        private synchronized boolean endSend() {
+            sendingThread = null;
+            Thread.interrupted();
+            return !timedOut;
+        }
+
+        /**
+         * Interrupts a send that has run past the timeout; true when it did, once per subscriber.
+         */
+        private synchronized boolean stall(long now) {
+            if ( sendingThread == null || timedOut || now - sendStartedAt <= sendTimeoutNanos ) {
+                return false;
+            }
+            timedOut = true;
+            sendingThread.interrupt();
+            return true;
+        }
+
+        private void drop(String reason) {
+            log.warn( "Dropping color stream subscriber " + id + ": " + reason );
+            unsubscribe( id );
+            sink.close();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.huebris.plexhuebris.service;
+
+/**
+ * Lifecycle of the {@link MediaStreamService} playback engine.
+ */
+public enum EngineState {
+    /** Created, nothing has played yet. */
+    IDLE,
+    /** Ticking: every room follows its player. */
+    PLAYING,
+    /** No player is playing; the rooms keep their colors for a resume. */
+    PAUSED,
+    /** Every player stopped; pending light commands and prefetched thumbnails are gone. */
+    STOPPED
+}
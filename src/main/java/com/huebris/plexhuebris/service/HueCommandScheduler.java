@@ -0,0 +1,285 @@
+package com.huebris.plexhuebris.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.awt.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sits in front of {@link HueService} and keeps at most one pending color per light.
+ * A newer color replaces one that has not been sent yet, so when the bridge falls behind
+ * the lights skip straight to the freshest color instead of working through a backlog.
+ * Commands are released through a token bucket sized to the bridge's command budget; when a
+ * whole batch shares one state and the slower group budget allows it, {@link HueService} sends
+ * it as a single group action instead. Colors a light already shows are suppressed by
+ * {@link HueService} and counted separately from the ones sent. A color still waiting after
+ * {@code hue.command.deadline-ms} belongs to a frame that is already over and is skipped rather
+ * than shown late.
+ */
+@Service
+@ConditionalOnProperty(name = "hue.transport", havingValue = "rest", matchIfMissing = true)
+public class HueCommandScheduler implements HueTransport {
+    private static final Logger log = LoggerFactory.getLogger( HueCommandScheduler.class );
+
+    private final HueService hueService;
+    private final TokenBucket tokenBucket;
+    private final TokenBucket groupTokenBucket;
+    private final LatencyTracker latencyTracker;
+    private final long deadlineNanos;
+
+    private final Map<Integer, Color> pending = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> submittedAt = new ConcurrentHashMap<>();
+    private final Set<Integer> inFlight = ConcurrentHashMap.newKeySet();
+    private final BlockingQueue<Integer> readyLights = new LinkedBlockingQueue<>();
+
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong grouped = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+
+    private Thread senderThread;
+
+    public HueCommandScheduler(HueService hueService, LatencyTracker latencyTracker,
+                               @Value("${hue.rate.commands-per-second:10}") double commandsPerSecond,
+                               @Value("${hue.rate.burst:10}") int burst,
+                               @Value("${hue.rate.group-commands-per-second:1}") double groupCommandsPerSecond,
+                               @Value("${hue.command.deadline-ms:2000}") long deadlineMs) {
+        this.hueService = hueService;
+        this.latencyTracker = latencyTracker;
+        this.deadlineNanos = deadlineMs <= 0 ? Long.MAX_VALUE : TimeUnit.MILLISECONDS.toNanos( deadlineMs );
+        this.tokenBucket = new TokenBucket( commandsPerSecond, burst );
+        this.groupTokenBucket = new TokenBucket( groupCommandsPerSecond, 1 );
+    }
+
+    @PostConstruct
+    public void start() {
+        senderThread = new Thread( this::runSender, "hue-command-scheduler" );
+        senderThread.setDaemon( true );
+        senderThread.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senderThread.interrupt();
+        clear();
+    }
+
+    @Override
+    public void submit(List<Integer> lights, Color color ) {
+        for ( Integer light : lights ) {
+            submit( light, color );
+        }
+    }
+
+    @Override
+    public void submit(Map<Integer, Color> colors ) {
+        for ( Map.Entry<Integer, Color> entry : colors.entrySet() ) {
+            submit( entry.getKey(), entry.getValue() );
+        }
+    }
+
+    public void submit(int light, Color color ) {
+        submittedAt.put( light, System.nanoTime() );
+        if ( pending.put( light, color ) != null ) {
+            coalesced.incrementAndGet();
+        } else {
+            readyLights.offer( light );
+        }
+    }
+
+    /**
+     * Discards everything that has not been sent yet, e.g. when playback stops.
+     */
+    @Override
+    public void clear() {
+        for ( Integer light : pending.keySet() ) {
+            if ( pending.remove( light ) != null ) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getGroupedCount() {
+        return grouped.get();
+    }
+
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    /**
+     * Colors that waited past their deadline and were never sent.
+     */
+    public long getExpiredCount() {
+        return expired.get();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put( "transport", "rest" );
+        result.put( "sent", getSentCount() );
+        result.put( "coalesced", getCoalescedCount() );
+        result.put( "grouped", getGroupedCount() );
+        result.put( "suppressed", getSuppressedCount() );
+        result.put( "dropped", getDroppedCount() );
+        result.put( "expired", getExpiredCount() );
+        result.put( "pending", getPendingCount() );
+        return result;
+    }
+
+    private void runSender() {
+        try {
+            while ( !Thread.currentThread().isInterrupted() ) {
+                readyLights.take();
+                readyLights.clear();
+                tokenBucket.acquire( 1 );
+                // Pick the colors up only after waiting for the token so they are the freshest ones.
+                Map<Integer, Color> batch = takePending();
+                if ( batch.isEmpty() ) {
+                    // Everything was in flight or expired; keep the token for the next color.
+                    tokenBucket.release( 1 );
+                    continue;
+                }
+                try {
+                    boolean group = hueService.isGroupAction( batch ) && groupTokenBucket.tryAcquire( 1 );
+                    if ( !group ) {
+                        limitToAvailableTokens( batch );
+                    }
+                    dispatch( batch, group, System.nanoTime() );
+                } catch (RuntimeException e) {
+                    log.error( "Could not send " + batch.size() + " light commands: " + e.getMessage(), e );
+                    dropped.addAndGet( batch.size() );
+                    for ( Integer light : batch.keySet() ) {
+                        inFlight.remove( light );
+                        if ( pending.containsKey( light ) ) {
+                            readyLights.offer( light );
+                        }
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Takes every pending color whose light has no command on the wire; the completion
+     * callback re-queues lights that were skipped because they were still in flight. Colors past
+     * their deadline are dropped.
+     */
+    private Map<Integer, Color> takePending() {
+        Map<Integer, Color> batch = new LinkedHashMap<>();
+        long now = System.nanoTime();
+        for ( Integer light : pending.keySet() ) {
+            if ( !inFlight.add( light ) ) {
+                continue;
+            }
+            Color color = pending.remove( light );
+            if ( color == null ) {
+                inFlight.remove( light );
+            } else if ( now - submittedAt.getOrDefault( light, now ) > deadlineNanos ) {
+                inFlight.remove( light );
+                expired.incrementAndGet();
+            } else {
+                batch.put( light, color );
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Per-light commands cost one token each. The first one is already paid for; lights that
+     * cannot be paid for right now go back to their slot unless a newer color arrived meanwhile.
+     */
+    private void limitToAvailableTokens(Map<Integer, Color> batch ) {
+        boolean first = true;
+        Iterator<Map.Entry<Integer, Color>> iterator = batch.entrySet().iterator();
+        while ( iterator.hasNext() ) {
+            Map.Entry<Integer, Color> entry = iterator.next();
+            if ( first ) {
+                first = false;
+            } else if ( !tokenBucket.tryAcquire( 1 ) ) {
+                iterator.remove();
+                inFlight.remove( entry.getKey() );
+                if ( pending.putIfAbsent( entry.getKey(), entry.getValue() ) == null ) {
+                    readyLights.offer( entry.getKey() );
+                }
+            }
+        }
+    }
+
+    private void dispatch(Map<Integer, Color> batch, boolean group, long dispatchedAt ) {
+        Map<Integer, CompletableFuture<Boolean>> results = hueService.dispatchColors( batch, group );
+        int unused = 0;
+        for ( Map.Entry<Integer, CompletableFuture<Boolean>> result : results.entrySet() ) {
+            Integer light = result.getKey();
+            // Includes the time the color waited for a token, which is part of what the lights lag behind.
+            long queuedAt = submittedAt.getOrDefault( light, dispatchedAt );
+            boolean unchanged = result.getValue() == HueService.SUPPRESSED;
+            if ( unchanged ) {
+                unused++;
+            }
+            result.getValue().whenComplete( (accepted, error) -> {
+                if ( unchanged ) {
+                    // The light already shows it; nothing went over the wire to measure.
+                    suppressed.incrementAndGet();
+                } else if ( Boolean.TRUE.equals( accepted ) ) {
+                    latencyTracker.record( LatencyTracker.DISPATCH, System.nanoTime() - Math.min( queuedAt, dispatchedAt ) );
+                    sent.incrementAndGet();
+                    if ( group ) {
+                        grouped.incrementAndGet();
+                    }
+                } else {
+                    dropped.incrementAndGet();
+                }
+                inFlight.remove( light );
+                if ( pending.containsKey( light ) ) {
+                    readyLights.offer( light );
+                }
+            } );
+        }
+        // Suppressed commands never reach the bridge, so the tokens paid for them go to the next colors.
+        if ( group && unused > 0 ) {
+            // A group action is suppressed for all of its lights or none, and cost one token of each bucket.
+            groupTokenBucket.release( 1 );
+            tokenBucket.release( 1 );
+        } else if ( unused > 0 ) {
+            tokenBucket.release( unused );
+        }
+    }
+}
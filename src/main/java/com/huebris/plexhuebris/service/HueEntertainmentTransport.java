@@ -0,0 +1,236 @@
+package com.huebris.plexhuebris.service;
+
+import com.huebris.plexhuebris.color.LabColor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.awt.*;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams every light's color in one binary UDP datagram at a fixed frame rate, using the
+ * Hue Entertainment "HueStream" v1 message layout. A dedicated sender thread always transmits
+ * the latest frame, so submitting never blocks and never queues. The stream has no transition
+ * time like the REST API's, so the sender fades each light itself: a new color is blended in
+ * from the one shown so far, in CIELAB, over {@code hue.transition-ms}. Once every fade has ended
+ * the frame is only repeated every {@code hue.entertainment.keep-alive-ms}, to keep the stream open.
+ * <p>
+ * The real bridge only accepts this stream over DTLS once an entertainment group has been
+ * activated; point {@code hue.entertainment.host}/{@code hue.entertainment.port} at a DTLS
+ * proxy or another receiver that understands the layout.
+ * </p>
+ */
+@Service
+@ConditionalOnProperty(name = "hue.transport", havingValue = "entertainment")
+public class HueEntertainmentTransport implements HueTransport {
+    private static final Logger log = LoggerFactory.getLogger( HueEntertainmentTransport.class );
+
+    static final byte[] PROTOCOL_NAME = "HueStream".getBytes( StandardCharsets.US_ASCII );
+    static final int HEADER_SIZE = 16;
+    static final int LIGHT_SIZE = 9;
+
+    private final String host;
+    private final int port;
+    private final int rateHz;
+    private final long keepAliveNanos;
+    private final long transitionNanos;
+    private final LatencyTracker latencyTracker;
+
+    private volatile Frame frame = Frame.EMPTY;
+    private Frame lastSentFrame;
+    private long lastSentAt;
+    private boolean lastSentSettled;
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    private DatagramSocket socket;
+    private ScheduledExecutorService senderExecutor;
+    private byte[] buffer = new byte[0];
+    private int sequence;
+
+    public HueEntertainmentTransport(LatencyTracker latencyTracker,
+                                     @Value("${hue.server}") String hueServer,
+                                     @Value("${hue.entertainment.host:}") String host,
+                                     @Value("${hue.entertainment.port:2100}") int port,
+                                     @Value("${hue.entertainment.rate-hz:25}") int rateHz,
+                                     @Value("${hue.entertainment.keep-alive-ms:1000}") long keepAliveMs,
+                                     @Value("${hue.transition-ms:2000}") long transitionMs) {
+        this.host = host.isEmpty() ? URI.create( hueServer ).getHost() : host;
+        this.port = port;
+        this.rateHz = Math.max( 1, Math.min( rateHz, 50 ) );
+        this.keepAliveNanos = TimeUnit.MILLISECONDS.toNanos( Math.max( 0, keepAliveMs ) );
+        this.transitionNanos = TimeUnit.MILLISECONDS.toNanos( Math.max( 0, transitionMs ) );
+        this.latencyTracker = latencyTracker;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        socket = new DatagramSocket();
+        socket.connect( new InetSocketAddress( host, port ) );
+        senderExecutor = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread thread = new Thread( r, "hue-entertainment-sender" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        long periodMicros = TimeUnit.SECONDS.toMicros( 1 ) / rateHz;
+        senderExecutor.scheduleAtFixedRate( this::sendFrame, 0, periodMicros, TimeUnit.MICROSECONDS );
+        log.info( "Streaming lights to " + host + ":" + port + " at " + rateHz + " Hz" );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        senderExecutor.shutdownNow();
+        socket.close();
+    }
+
+    @Override
+    public synchronized void submit(Map<Integer, Color> colors ) {
+        // Copy-on-write so the sender always encodes one consistent frame.
+        long now = System.nanoTime();
+        Map<Integer, Fade> next = new TreeMap<>( frame.fades );
+        for ( Map.Entry<Integer, Color> entry : colors.entrySet() ) {
+            Fade current = next.get( entry.getKey() );
+            // A light seen for the first time starts at its color; the others fade on from where they are.
+            Color from = current == null ? entry.getValue() : current.colorAt( now, transitionNanos );
+            next.put( entry.getKey(), new Fade( from, entry.getValue(), now ) );
+        }
+        frame = new Frame( next, now );
+    }
+
+    @Override
+    public synchronized void clear() {
+        frame = Frame.EMPTY;
+    }
+
+    @Override
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put( "transport", "entertainment" );
+        result.put( "rateHz", rateHz );
+        result.put( "sent", sent.get() );
+        result.put( "failed", failed.get() );
+        result.put( "lights", frame.fades.size() );
+        return result;
+    }
+
+    private void sendFrame() {
+        // Only the sender thread touches the buffer, the sequence counter and the last sent frame.
+        Frame next = frame;
+        long now = System.nanoTime();
+        if ( next == lastSentFrame && lastSentSettled && now - lastSentAt < keepAliveNanos ) {
+            return;
+        }
+        boolean settled = now - next.submittedAt >= transitionNanos;
+        Map<Integer, Color> colors = new TreeMap<>();
+        for ( Map.Entry<Integer, Fade> entry : next.fades.entrySet() ) {
+            colors.put( entry.getKey(), entry.getValue().colorAt( now, transitionNanos ) );
+        }
+        int length = encode( colors );
+        if ( length == 0 ) {
+            return;
+        }
+        try {
+            socket.send( new DatagramPacket( buffer, length ) );
+            sent.incrementAndGet();
+            if ( next != lastSentFrame ) {
+                latencyTracker.record( LatencyTracker.DISPATCH, System.nanoTime() - next.submittedAt );
+                lastSentFrame = next;
+            }
+            lastSentAt = now;
+            lastSentSettled = settled;
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            log.error( e.getMessage(), e );
+        }
+    }
+
+    int encode(Map<Integer, Color> colors ) {
+        if ( colors.isEmpty() ) {
+            return 0;
+        }
+        int length = HEADER_SIZE + LIGHT_SIZE * colors.size();
+        if ( buffer.length < length ) {
+            buffer = new byte[length];
+        }
+        ByteBuffer out = ByteBuffer.wrap( buffer );
+        out.put( PROTOCOL_NAME );
+        out.put( (byte)0x01 ).put( (byte)0x00 );    // API version 1.0
+        out.put( (byte)sequence++ );
+        out.put( (byte)0x00 ).put( (byte)0x00 );    // reserved
+        out.put( (byte)0x00 );                      // color space RGB
+        out.put( (byte)0x00 );                      // reserved
+        for ( Map.Entry<Integer, Color> entry : colors.entrySet() ) {
+            Color color = entry.getValue();
+            out.put( (byte)0x00 );                  // device type light
+            out.putShort( (short)(int)entry.getKey() );
+            out.putShort( (short)(color.getRed() * 257) );
+            out.putShort( (short)(color.getGreen() * 257) );
+            out.putShort( (short)(color.getBlue() * 257) );
+        }
+        return out.position();
+    }
+
+    /**
+     * The fade of every light and when the newest was submitted, published together in one field.
+     * Every fade starts at or before the submit time, so all have ended one transition after it.
+     */
+    private static final class Frame {
+        private static final Frame EMPTY = new Frame( Collections.emptyMap(), 0 );
+
+        private final Map<Integer, Fade> fades;
+        private final long submittedAt;
+
+        private Frame(Map<Integer, Fade> fades, long submittedAt) {
+            this.fades = fades;
+            this.submittedAt = submittedAt;
+        }
+    }
+
+    /**
+     * One light going from one color to the next, blended in CIELAB.
+     */
+    static final class Fade {
+        private final double[] from;
+        private final double[] to;
+        private final Color target;
+        private final long startedAt;
+
+        Fade(Color from, Color target, long startedAt) {
+            this.from = LabColor.fromColor( from );
+            this.to = LabColor.fromColor( target );
+            this.target = target;
+            this.startedAt = startedAt;
+        }
+
+        Color colorAt(long now, long transitionNanos) {
+            long elapsed = now - startedAt;
+            if ( elapsed >= transitionNanos ) {
+                return target;
+            }
+            double t = Math.max( 0, (double)elapsed / transitionNanos );
+            return LabColor.toColor( new double[] {
+                    from[0] + (to[0] - from[0]) * t,
+                    from[1] + (to[1] - from[1]) * t,
+                    from[2] + (to[2] - from[2]) * t } );
+        }
+    }
+}
@@ -1,18 +1,49 @@
 package com.huebris.plexhuebris.service;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.huebris.plexhuebris.color.LabColor;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import java.awt.*;
-import java.io.OutputStreamWriter;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Service
 public class HueService {
@@ -24,28 +55,241 @@ public class HueService {
     @Value("${hue.user}")
     private String HUE_USER;
 
+    @Value("${hue.lights:6,7}")
+    private String HUE_LIGHTS;
+
+    @Value("${hue.group.name:plex-huebris}")
+    private String groupName;
+
+    @Value("${hue.http.max-connections:8}")
+    private int maxConnections;
+
+    @Value("${hue.http.timeout-ms:1000}")
+    private int timeoutMs;
+
+    /** How long the bulbs fade to each new color; the bridge counts in steps of 100 ms. */
+    @Value("${hue.transition-ms:2000}")
+    private long transitionMs;
+
+    /** Colors closer than this (CIE76) to what a light last acknowledged are not sent; 0 sends everything. */
+    @Value("${hue.suppress.delta-e:2.3}")
+    private double suppressDeltaE;
+
+    /** Completes every command that was suppressed, so callers can tell it from one the bridge acknowledged. */
+    static final CompletableFuture<Boolean> SUPPRESSED = CompletableFuture.completedFuture( true );
+
     private ObjectMapper objectMapper = new ObjectMapper();
 
+    private PoolingHttpClientConnectionManager connectionManager;
+    private CloseableHttpClient httpClient;
+    private ExecutorService dispatchExecutor;
+
+    private List<Integer> lights;
+    private String groupId;
+
+    /** The state each light last acknowledged; a light is missing while unknown, e.g. after a failure. */
+    private final Map<Integer, LightState> acknowledged = new ConcurrentHashMap<>();
+    private final AtomicLong sent = new AtomicLong();
+    private final AtomicLong suppressed = new AtomicLong();
+
+    private final CircuitBreaker breaker;
+
+    private final Timer dispatchTimer;
+    private final Counter failedCounter;
+    private final Counter timedOutCounter;
+    private final Counter rejectedCounter;
+    private final Counter sentCounter;
+    private final Counter suppressedCounter;
+
+    public HueService(MeterRegistry meterRegistry, CircuitBreakers circuitBreakers) {
+        this.breaker = circuitBreakers.forEndpoint( CircuitBreakers.HUE );
+        this.dispatchTimer = meterRegistry.timer( "hue.dispatch" );
+        this.failedCounter = meterRegistry.counter( "hue.requests.failed" );
+        this.timedOutCounter = meterRegistry.counter( "hue.requests.timeout" );
+        this.rejectedCounter = meterRegistry.counter( "hue.requests.rejected" );
+        this.sentCounter = meterRegistry.counter( "hue.commands", "result", "sent" );
+        this.suppressedCounter = meterRegistry.counter( "hue.commands", "result", "suppressed" );
+    }
+
+    @PostConstruct
+    public void init() {
+        // The bridge only talks HTTP/1.1 to a single host, so one route carries every connection.
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal( maxConnections );
+        connectionManager.setDefaultMaxPerRoute( maxConnections );
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout( timeoutMs )
+                .setSocketTimeout( timeoutMs )
+                .setConnectionRequestTimeout( timeoutMs )
+                .build();
+
+        httpClient = HttpClients.custom()
+                .setConnectionManager( connectionManager )
+                .setDefaultRequestConfig( requestConfig )
+                .disableAutomaticRetries()
+                .build();
+
+        dispatchExecutor = Executors.newFixedThreadPool( maxConnections );
+
+        lights = new ArrayList<>();
+        for ( String light : HUE_LIGHTS.split( "," ) ) {
+            lights.add( Integer.parseInt( light.trim() ) );
+        }
+        try {
+            groupId = findOrCreateGroup();
+            log.info( "Using Hue group " + groupId + " for lights " + lights );
+        } catch (Exception e) {
+            log.warn( "Could not set up Hue group, falling back to per-light updates: " + e.getMessage() );
+        }
+    }
+
+    @PreDestroy
+    public void destroy() {
+        dispatchExecutor.shutdownNow();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+        }
+    }
+
     public void sendColorToHueLights(List<Integer> lights, Color color ) {
+        Map<Integer, CompletableFuture<Boolean>> results = dispatchColorToHueLights( lights, color );
+        for ( Map.Entry<Integer, CompletableFuture<Boolean>> result : results.entrySet() ) {
+            if ( !result.getValue().join() ) {
+                log.warn( "Light " + result.getKey() + " did not accept " + color );
+            }
+        }
+    }
+
+    public List<Integer> getLights() {
+        return Collections.unmodifiableList( lights );
+    }
+
+    /**
+     * Commands the bridge acknowledged.
+     */
+    public long getSentCount() {
+        return sent.get();
+    }
+
+    /**
+     * Commands left out because the light already showed an indistinguishable color.
+     */
+    public long getSuppressedCount() {
+        return suppressed.get();
+    }
+
+    void setSuppressDeltaE(double suppressDeltaE) {
+        this.suppressDeltaE = suppressDeltaE;
+    }
+
+    /**
+     * Sends the color to every light in parallel over the pooled connections.
+     * Each future completes with true once the bridge has acknowledged the state change.
+     */
+    public Map<Integer, CompletableFuture<Boolean>> dispatchColorToHueLights(List<Integer> lights, Color color ) {
+        Map<Integer, Color> colors = new LinkedHashMap<>();
         for ( Integer light : lights ) {
-            try {
-                sendColorToHueLights( light, color );
-            } catch (Exception e) {
-                log.error(e.getMessage(), e);
+            colors.put( light, color );
+        }
+        return dispatchColors( colors );
+    }
+
+    /**
+     * Sends a whole frame of light colors. When every light of the managed group gets an identical
+     * state the frame goes out as a single group action, otherwise each light is updated on its own
+     * with just the fields that differ from what it last acknowledged. Lights that would not visibly
+     * change are skipped and get {@link #SUPPRESSED}.
+     */
+    public Map<Integer, CompletableFuture<Boolean>> dispatchColors(Map<Integer, Color> colors ) {
+        return dispatchColors( colors, true );
+    }
+
+    public Map<Integer, CompletableFuture<Boolean>> dispatchColors(Map<Integer, Color> colors, boolean allowGroupAction ) {
+        Map<Integer, CompletableFuture<Boolean>> results = new LinkedHashMap<>();
+        if ( allowGroupAction && isGroupAction( colors ) ) {
+            Color color = colors.values().iterator().next();
+            boolean unchanged = true;
+            for ( Integer light : colors.keySet() ) {
+                unchanged &= changesFor( light, color ) == null;
             }
+            CompletableFuture<Boolean> result = unchanged ? suppress( colors.size() ) : submit( colors.keySet(), color, () -> sendColorToHueGroup( color ) );
+            for ( Integer light : colors.keySet() ) {
+                results.put( light, result );
+            }
+            return results;
+        }
+        for ( Map.Entry<Integer, Color> entry : colors.entrySet() ) {
+            Integer light = entry.getKey();
+            Map<String, Object> changes = changesFor( light, entry.getValue() );
+            results.put( light, changes == null ? suppress( 1 ) : submit( Collections.singleton( light ), entry.getValue(), () -> sendStateToHueLight( light, changes ) ) );
+        }
+        return results;
+    }
+
+    /**
+     * The fields the light needs for the color, or null when what it last acknowledged is closer
+     * than {@code hue.suppress.delta-e}. Fields it already has are left out.
+     */
+    Map<String, Object> changesFor(int light, Color color ) {
+        Map<String, Object> payload = buildStatePayload( color );
+        LightState last = acknowledged.get( light );
+        if ( last == null ) {
+            return payload;
+        }
+        if ( LabColor.deltaE( last.lab, LabColor.fromColor( color ) ) < suppressDeltaE ) {
+            return null;
         }
+        Map<String, Object> changes = new HashMap<>( payload );
+        changes.entrySet().removeIf( field -> !"transitiontime".equals( field.getKey() ) && field.getValue().equals( last.payload.get( field.getKey() ) ) );
+        // Only the fade left means the bridge would round it to the state the light already has.
+        return changes.size() == 1 && changes.containsKey( "transitiontime" ) ? null : changes;
+    }
+
+    void acknowledge(Collection<Integer> lights, Color color ) {
+        LightState state = new LightState( LabColor.fromColor( color ), buildStatePayload( color ) );
+        for ( Integer light : lights ) {
+            acknowledged.put( light, state );
+        }
+    }
+
+    /**
+     * True when the frame covers exactly the managed group and every light would get the same state.
+     */
+    public boolean isGroupAction(Map<Integer, Color> colors ) {
+        if ( groupId == null || colors.size() < 2 || colors.size() != lights.size() || !colors.keySet().containsAll( lights ) ) {
+            return false;
+        }
+        Iterator<Color> iterator = colors.values().iterator();
+        Map<String, Object> state = buildStatePayload( iterator.next() );
+        while ( iterator.hasNext() ) {
+            if ( !state.equals( buildStatePayload( iterator.next() ) ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public void sendColorToHueGroup(Color color ) throws Exception {
+        log.debug( "   Group Color: " + color );
+        String path = "/api/" + HUE_USER + "/groups/" + groupId + "/action";
+        putState( path, buildStatePayload( color ) );
     }
 
     public void sendColorToHueLights(int light, Color color ) throws Exception {
+        log.debug( "   Light " + light + " Color: " + color );
+        sendStateToHueLight( light, buildStatePayload( color ) );
+    }
 
-        float[] hsb = Color.RGBtoHSB(color.getRed(), color.getGreen(), color.getBlue(), null);
-        String uri = HUE_SERVER;
+    private void sendStateToHueLight(int light, Map<String, Object> state ) throws Exception {
         String path = "/api/" + HUE_USER + "/lights/" + light + "/state";
+        putState( path, state );
+    }
 
-        URL url = new URL(uri + path);
-        HttpURLConnection httpCon = (HttpURLConnection) url.openConnection();
-        httpCon.setDoOutput(true);
-        httpCon.setRequestMethod("PUT");
+    Map<String, Object> buildStatePayload(Color color ) {
+        float[] hsb = Color.RGBtoHSB(color.getRed(), color.getGreen(), color.getBlue(), null);
 
         Map<String, Object> propertyMap = new HashMap<>();
         propertyMap.put( "on", hsb[2] > 0.03?true:false);
@@ -54,15 +298,148 @@ public class HueService {
             propertyMap.put( "bri", Math.round(hsb[2] * 254.0));
             propertyMap.put( "hue", Math.round(hsb[0] * 65536.0));
         }
+        propertyMap.put( "transitiontime", Math.round( transitionMs / 100.0 ) );
+        return propertyMap;
+    }
+
+    private CompletableFuture<Boolean> suppress(int commands ) {
+        suppressed.addAndGet( commands );
+        suppressedCounter.increment( commands );
+        return SUPPRESSED;
+    }
+
+    /**
+     * Sends the command and records the color as acknowledged by the lights. While it is on the
+     * wire, and for good if it fails, their state counts as unknown so the next command is sent in full.
+     */
+    private CompletableFuture<Boolean> submit(Collection<Integer> lights, Color color, HueCall call ) {
+        acknowledged.keySet().removeAll( lights );
+        return submit( () -> {
+            call.run();
+            acknowledge( lights, color );
+            sent.incrementAndGet();
+            sentCounter.increment();
+        } );
+    }
+
+    /**
+     * Runs the call on the dispatch pool unless the bridge's circuit breaker is open, in which
+     * case it completes with false without touching the network.
+     */
+    private CompletableFuture<Boolean> submit(HueCall call ) {
+        return CompletableFuture.supplyAsync( () -> {
+            if ( !breaker.tryAcquire() ) {
+                rejectedCounter.increment();
+                return false;
+            }
+            long started = System.nanoTime();
+            try {
+                call.run();
+                breaker.onSuccess();
+                return true;
+            } catch (InterruptedIOException e) {
+                // Socket, connect and connection pool timeouts all end up here.
+                breaker.onFailure();
+                timedOutCounter.increment();
+                log.warn( "Hue bridge timed out: " + e.getMessage() );
+                return false;
+            } catch (Exception e) {
+                breaker.onFailure();
+                failedCounter.increment();
+                log.error(e.getMessage(), e);
+                return false;
+            } finally {
+                dispatchTimer.record( System.nanoTime() - started, TimeUnit.NANOSECONDS );
+            }
+        }, dispatchExecutor );
+    }
+
+    /**
+     * Looks up the group this application manages on the bridge, creating it on first start and
+     * keeping its membership in line with the configured lights.
+     */
+    private String findOrCreateGroup() throws IOException {
+        String path = "/api/" + HUE_USER + "/groups";
+        JsonNode groups = execute( new HttpGet( HUE_SERVER + path ), path );
+
+        List<String> members = new ArrayList<>();
+        for ( Integer light : lights ) {
+            members.add( String.valueOf( light ) );
+        }
+        Map<String, Object> group = new HashMap<>();
+        group.put( "lights", members );
 
-        log.info( "   Raw Brightness: " + hsb[2] );
+        Iterator<Map.Entry<String, JsonNode>> fields = groups.fields();
+        while ( fields.hasNext() ) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            if ( groupName.equals( field.getValue().path( "name" ).asText() ) ) {
+                List<String> current = new ArrayList<>();
+                for ( JsonNode light : field.getValue().path( "lights" ) ) {
+                    current.add( light.asText() );
+                }
+                if ( !current.equals( members ) ) {
+                    putState( path + "/" + field.getKey(), group );
+                }
+                return field.getKey();
+            }
+        }
+
+        group.put( "name", groupName );
+        group.put( "type", "LightGroup" );
+        JsonNode created = send( new HttpPost( HUE_SERVER + path ), path, group );
+        return created.path( 0 ).path( "success" ).path( "id" ).asText();
+    }
 
-        OutputStreamWriter out = new OutputStreamWriter(
-                httpCon.getOutputStream());
+    private void putState(String path, Map<String, Object> propertyMap ) throws IOException {
+        send( new HttpPut( HUE_SERVER + path ), path, propertyMap );
+    }
 
-        out.write(objectMapper.writeValueAsString( propertyMap ));
+    private JsonNode send(HttpEntityEnclosingRequestBase request, String path, Map<String, Object> propertyMap ) throws IOException {
+        request.setEntity( new StringEntity( objectMapper.writeValueAsString( propertyMap ), ContentType.APPLICATION_JSON ) );
+        return execute( request, path );
+    }
 
-        out.close();
-        httpCon.getInputStream();
+    /**
+     * Runs the request against the bridge and returns its reply once checked for errors.
+     */
+    protected JsonNode execute(HttpRequestBase request, String path ) throws IOException {
+        // Always drain the entity so the connection goes back to the pool instead of being discarded.
+        try ( CloseableHttpResponse response = httpClient.execute( request ) ) {
+            HttpEntity entity = response.getEntity();
+            String body = entity == null ? "" : EntityUtils.toString( entity );
+            int status = response.getStatusLine().getStatusCode();
+            if ( status != 200 ) {
+                throw new IOException( "Hue bridge returned " + status + " for " + path );
+            }
+            JsonNode results = body.isEmpty() ? objectMapper.createArrayNode() : objectMapper.readTree( body );
+            checkForErrors( path, results );
+            return results;
+        }
+    }
+
+    private void checkForErrors(String path, JsonNode results ) throws IOException {
+        if ( !results.isArray() ) {
+            return;
+        }
+        for ( JsonNode result : results ) {
+            JsonNode error = result.get( "error" );
+            if ( error != null ) {
+                throw new IOException( "Hue bridge rejected " + path + ": " + error.path( "description" ).asText() );
+            }
+        }
+    }
+
+    private interface HueCall {
+        void run() throws Exception;
+    }
+
+    private static class LightState {
+        private final double[] lab;
+        private final Map<String, Object> payload;
+
+        private LightState(double[] lab, Map<String, Object> payload) {
+            this.lab = lab;
+            this.payload = payload;
+        }
     }
 }
@@ -0,0 +1,31 @@
+package com.huebris.plexhuebris.service;
+
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * How computed colors reach the lights. Implementations are latest-wins: submitting a new
+ * color for a light supersedes anything for that light that has not gone out yet.
+ * Selected with the {@code hue.transport} property.
+ */
+public interface HueTransport {
+
+    void submit(Map<Integer, Color> colors );
+
+    default void submit(List<Integer> lights, Color color ) {
+        Map<Integer, Color> colors = new LinkedHashMap<>();
+        for ( Integer light : lights ) {
+            colors.put( light, color );
+        }
+        submit( colors );
+    }
+
+    /**
+     * Forgets everything that has not been sent, e.g. when playback stops.
+     */
+    void clear();
+
+    Map<String, Object> getStatistics();
+}
@@ -0,0 +1,99 @@
+package com.huebris.plexhuebris.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the latest {@code huebris.latency.window} durations of every pipeline stage and estimates
+ * how long a sampled color takes to reach the bulbs: the configured percentile of each stage plus
+ * the bulb's own fade ({@code huebris.latency.render-ms}).
+ */
+@Component
+public class LatencyTracker {
+
+    /** Thumbnail analysis, from the image to the zone colors. */
+    public static final String ANALYSIS = "analysis";
+    /** From handing a color to the transport until the bridge acknowledged it. */
+    public static final String DISPATCH = "dispatch";
+
+    private final int window;
+    private final double percentile;
+    private final long renderMs;
+
+    private final Map<String, Window> stages = new ConcurrentHashMap<>();
+
+    public LatencyTracker(@Value("${huebris.latency.window:64}") int window,
+                          @Value("${huebris.latency.percentile:90}") double percentile,
+                          @Value("${huebris.latency.render-ms:400}") long renderMs) {
+        this.window = Math.max( 1, window );
+        this.percentile = Math.max( 0, Math.min( percentile, 100 ) );
+        this.renderMs = renderMs;
+    }
+
+    public void record(String stage, long nanos) {
+        stages.computeIfAbsent( stage, s -> new Window( window ) ).add( nanos );
+    }
+
+    /**
+     * The configured percentile of the stage's recent durations, 0 before anything was recorded.
+     */
+    public long percentileMs(String stage) {
+        Window samples = stages.get( stage );
+        return samples == null ? 0 : TimeUnit.NANOSECONDS.toMillis( samples.percentile( percentile ) );
+    }
+
+    /**
+     * Estimated time from picking a frame until the bulbs show its color.
+     */
+    public long getLatencyMs() {
+        return percentileMs( ANALYSIS ) + percentileMs( DISPATCH ) + renderMs;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put( "percentile", percentile );
+        result.put( "renderMs", renderMs );
+        for ( Map.Entry<String, Window> stage : stages.entrySet() ) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put( "ms", percentileMs( stage.getKey() ) );
+            values.put( "samples", stage.getValue().size() );
+            result.put( stage.getKey(), values );
+        }
+        result.put( "latencyMs", getLatencyMs() );
+        return result;
+    }
+
+    private static class Window {
+        private final long[] samples;
+        private long count;
+
+        private Window(int size) {
+            this.samples = new long[size];
+        }
+
+        private synchronized void add(long nanos) {
+            samples[(int)(count++ % samples.length)] = nanos;
+        }
+
+        private synchronized int size() {
+            return (int)Math.min( count, samples.length );
+        }
+
+        private synchronized long percentile(double percentile) {
+            int size = size();
+            if ( size == 0 ) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf( samples, size );
+            Arrays.sort( sorted );
+            int rank = (int)Math.ceil( percentile / 100.0 * size ) - 1;
+            return sorted[Math.max( 0, Math.min( rank, size - 1 ) )];
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.huebris.plexhuebris.service;
+
+import com.huebris.plexhuebris.color.ScreenZone;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maps each configured Hue light to the part of the frame it should reflect, e.g.
+ * <pre>
+ * hue.zones.6=left
+ * hue.zones.7=right
+ * hue.zones.8=0,0,1,0.2
+ * </pre>
+ * Lights without an entry follow the whole frame.
+ * <p>
+ * With more than one TV, rooms assign lights to Plex players, matched by machine identifier or
+ * title, e.g. {@code hue.rooms.living-room-tv=6,7}. Without any rooms every player drives every light.
+ * </p>
+ */
+@Component
+@ConfigurationProperties(prefix = "hue")
+public class LightZones {
+
+    private final HueService hueService;
+
+    private Map<String, String> zones = new HashMap<>();
+    private Map<String, String> rooms = new HashMap<>();
+    private volatile Map<Integer, ScreenZone> lightZones;
+
+    public LightZones(HueService hueService) {
+        this.hueService = hueService;
+    }
+
+    public Map<String, String> getZones() {
+        return zones;
+    }
+
+    public void setZones(Map<String, String> zones) {
+        this.zones = zones;
+        this.lightZones = null;
+    }
+
+    public Map<String, String> getRooms() {
+        return rooms;
+    }
+
+    public void setRooms(Map<String, String> rooms) {
+        this.rooms = rooms;
+    }
+
+    /**
+     * The configured lights of the player's room, empty when rooms are configured but none matches the player.
+     */
+    public List<Integer> lightsFor(String player, String playerTitle) {
+        if ( rooms.isEmpty() ) {
+            return hueService.getLights();
+        }
+        for ( Map.Entry<String, String> room : rooms.entrySet() ) {
+            if ( room.getKey().equalsIgnoreCase( player ) || room.getKey().equalsIgnoreCase( playerTitle ) ) {
+                List<Integer> result = new ArrayList<>();
+                for ( String light : room.getValue().split( "," ) ) {
+                    Integer id = Integer.valueOf( light.trim() );
+                    if ( getLightZones().containsKey( id ) ) {
+                        result.add( id );
+                    }
+                }
+                return result;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    public Map<Integer, ScreenZone> getLightZones() {
+        Map<Integer, ScreenZone> result = lightZones;
+        if ( result == null ) {
+            result = new LinkedHashMap<>();
+            for ( Integer light : hueService.getLights() ) {
+                String zone = zones.get( String.valueOf( light ) );
+                result.put( light, zone == null ? ScreenZone.FULL : ScreenZone.parse( zone ) );
+            }
+            lightZones = result;
+        }
+        return result;
+    }
+
+    /**
+     * The pixel region of every light for a frame of the given size.
+     */
+    public Map<Integer, Rectangle> regionsFor(int frameWidth, int frameHeight) {
+        return regionsFor( getLightZones().keySet(), frameWidth, frameHeight );
+    }
+
+    public Map<Integer, Rectangle> regionsFor(Collection<Integer> lights, int frameWidth, int frameHeight) {
+        Map<Integer, Rectangle> result = new LinkedHashMap<>();
+        for ( Integer light : lights ) {
+            ScreenZone zone = getLightZones().get( light );
+            if ( zone != null ) {
+                result.put( light, zone.toRectangle( frameWidth, frameHeight ) );
+            }
+        }
+        return result;
+    }
+}
@@ -1,164 +1,272 @@
+/*******************************************************************************
+ * Copyright (c) 2014, Art Clarke.  All rights reserved.
+ *
+ * This file is part of Humble-Video.
+ *
+ * Humble-Video is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Humble-Video is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with Humble-Video.  If not, see <http://www.gnu.org/licenses/>.
+ *******************************************************************************/
 package com.huebris.plexhuebris.service;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.huebris.plexhuebris.color.FrameSignature;
+import com.huebris.plexhuebris.color.PixelRows;
+import com.huebris.plexhuebris.color.RasterPixels;
+import com.huebris.plexhuebris.color.SceneDetector;
+import com.huebris.plexhuebris.color.YuvPlanes;
+import com.huebris.plexhuebris.index.ColorTrackStore;
+import com.huebris.plexhuebris.index.ColorTrackWriter;
+import io.humble.ferry.Buffer;
 import io.humble.video.*;
 import io.humble.video.awt.MediaPictureConverter;
 import io.humble.video.awt.MediaPictureConverterFactory;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Opens a media file, finds the first video stream, and then plays it.
- * This is meant as a demonstration program to teach the use of the Humble API.
+ * Decodes the video stream of local media files with Humble and turns its frames into zone
+ * colors. {@link #indexVideo(String, long)} records them as the color track of a Plex media part,
+ * splitting the file into segments decoded in parallel; {@link #playVideo(String)} sends them
+ * straight to the lights as fast as the file decodes.
  * <p>
- * Concepts introduced:
+ * The decoding loops started out as the Humble-Video DecodeAndPlayVideo demo.
  * </p>
- * <ul>
- * <li>MediaPicture: {@link MediaPicture} objects represent uncompressed video in Humble.</li>
- * <li>Timestamps: All {@link Media} objects in Humble have a timestamp, and this demonstration introduces the concept of having to worry about <i>when</i> to display information.</li>
- * </ul>
- *
- * <p>
- * To run from maven, do:
- * </p>
- * <pre>
- * mvn install exec:java -Dexec.mainClass="io.humble.video.demos.DecodeAndPlayVideo" -Dexec.args="filename.mp4"
- * </pre>
  *
  * @author aclarke
  *
  */
-
-
 @Component
 public class MediaScanService {
     private static final Logger log = LoggerFactory.getLogger( MediaScanService.class );
-    private static double lastLoggedTimeStamp = -1000;
 
-    public MediaScanService(HueService hueService, MediaStreamService mediaStreamService) {
-        this.hueService = hueService;
+    public MediaScanService(HueTransport hueTransport, LightZones lightZones, MediaStreamService mediaStreamService, ColorTrackStore colorTrackStore,
+                            ColorBroadcaster colorBroadcaster, MeterRegistry meterRegistry,
+                            @Value("${huebris.index.mode:keyframe}") String indexMode,
+                            @Value("${huebris.index.segments:0}") int segments,
+                            @Value("${huebris.scene.min-interval-ms:100}") long sceneMinIntervalMs,
+                            @Value("${huebris.scene.max-interval-ms:4000}") long sceneMaxIntervalMs,
+                            @Value("${huebris.scene.threshold:12}") double sceneThreshold) {
+        this.hueTransport = hueTransport;
+        this.lightZones = lightZones;
         this.mediaStreamService = mediaStreamService;
+        this.colorTrackStore = colorTrackStore;
+        this.colorBroadcaster = colorBroadcaster;
+        this.keyframeMode = "keyframe".equalsIgnoreCase( indexMode );
+        this.segments = segments > 0 ? segments : Runtime.getRuntime().availableProcessors();
+        this.segmentExecutor = Executors.newFixedThreadPool( this.segments );
+        this.sceneMinIntervalMs = sceneMinIntervalMs;
+        this.sceneMaxIntervalMs = sceneMaxIntervalMs;
+        this.sceneThreshold = sceneThreshold;
+        this.analysisTimer = meterRegistry.timer( "huebris.color.analysis", "source", "scan" );
+        this.analyzedCounter = meterRegistry.counter( "huebris.scene.frames", "result", "analyzed" );
+        this.skippedCounter = meterRegistry.counter( "huebris.scene.frames", "result", "skipped" );
+        meterRegistry.gauge( "huebris.scan.frames-per-second", this, MediaScanService::getFramesPerSecond );
     }
 
-    private HueService hueService;
+    private HueTransport hueTransport;
+    private LightZones lightZones;
     private MediaStreamService mediaStreamService;
-    private ObjectMapper objectMapper = new ObjectMapper();
+    private ColorTrackStore colorTrackStore;
+    private ColorBroadcaster colorBroadcaster;
+
+    private final boolean keyframeMode;
+    private final int segments;
+    private final ExecutorService segmentExecutor;
+    private final long sceneMinIntervalMs;
+    private final long sceneMaxIntervalMs;
+    private final double sceneThreshold;
+    private final Timer analysisTimer;
+    private final Counter analyzedCounter;
+    private final Counter skippedCounter;
+    /** Frames analyzed by the {@link #playVideo(String)} calls running since {@link #playingSince}. */
+    private final AtomicLong playedFrames = new AtomicLong();
+    private int playing;
+    private long playingSince;
+
+    /**
+     * Hears how far a scan got. Segments report from their own threads, so implementations must be
+     * thread safe.
+     */
+    public interface Progress {
+        Progress NONE = (mediaMs, frames) -> { };
+
+        /**
+         * Called once before decoding starts; the duration is 0 when the container does not know it.
+         */
+        default void started(long durationMs) {
+        }
+
+        /**
+         * A segment got mediaMs further into the file and decoded that many more frames. May block
+         * to hold the scan back, and throws to abort it.
+         */
+        void advance(long mediaMs, int frames) throws InterruptedException;
+    }
+
+    @PreDestroy
+    public void destroy() {
+        segmentExecutor.shutdownNow();
+    }
 
-/*******************************************************************************
- * Copyright (c) 2014, Art Clarke.  All rights reserved.
- *
- * This file is part of Humble-Video.
- *
- * Humble-Video is free software: you can redistribute it and/or modify
- * it under the terms of the GNU Affero General Public License as published by
- * the Free Software Foundation, either version 3 of the License, or
- * (at your option) any later version.
- *
- * Humble-Video is distributed in the hope that it will be useful,
- * but WITHOUT ANY WARRANTY; without even the implied warranty of
- * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
- * GNU Affero General Public License for more details.
- *
- * You should have received a copy of the GNU Affero General Public License
- * along with Humble-Video.  If not, see <http://www.gnu.org/licenses/>.
- *******************************************************************************/
     /**
-     * Opens a file, and plays the video from it on a screen at the right rate.
+     * Opens a file, and plays the video from it on the lights as fast as it decodes.
      *
      * @param filename The file or URL to play.
      */
     public void playVideo(String filename) throws InterruptedException, IOException {
-        /*
-         * Start by creating a container object, in this case a demuxer since
-         * we are reading, to get video data from.
-         */
-        Demuxer demuxer = Demuxer.make();
-        /*
-         * Open the demuxer with the filename passed on.
-         */
-        demuxer.open(filename, null, false, true, null, null);
-        /*
-         * Query how many streams the call to open found
-         */
-        int numStreams = demuxer.getNumStreams();
+        playStarted();
+        try ( VideoSource source = VideoSource.open( filename ) ) {
+            scanSequential( source, 0, Long.MAX_VALUE, Progress.NONE, (timestampMs, colors) -> {
+                hueTransport.submit( colors );
+                colorBroadcaster.publish( "scan", filename, timestampMs, colors );
+                playedFrames.incrementAndGet();
+            } );
+        } finally {
+            playFinished();
+        }
+    }
 
-        /*
-         * Iterate through the streams to find the first video stream
-         */
-        int videoStreamId = -1;
-        long streamStartTime = Global.NO_PTS;
-        Decoder videoDecoder = null;
-        for (int i = 0; i < numStreams; i++) {
-            final DemuxerStream stream = demuxer.getStream(i);
-            streamStartTime = stream.getStartTime();
-            final Decoder decoder = stream.getDecoder();
-            if (decoder != null && decoder.getCodecType() == MediaDescriptor.Type.MEDIA_VIDEO) {
-                videoStreamId = i;
-                videoDecoder = decoder;
-                // stop at the first one.
-                break;
-            }
-        }
-        if (videoStreamId == -1)
-            throw new RuntimeException("could not find video stream in container: " + filename);
-
-        /*
-         * Now we have found the audio stream in this file.  Let's open up our decoder so it can
-         * do work.
-         */
-        videoDecoder.open(null, null);
+    /**
+     * Frames analyzed per second by all running {@link #playVideo(String)} calls together, counted
+     * since the first of them started; 0 when nothing plays. Scan jobs report their own rate.
+     */
+    public synchronized double getFramesPerSecond() {
+        long elapsed = System.nanoTime() - playingSince;
+        return playing == 0 || elapsed <= 0 ? 0 : playedFrames.get() * (double)TimeUnit.SECONDS.toNanos( 1 ) / elapsed;
+    }
 
-        final MediaPicture picture = MediaPicture.make(
-                videoDecoder.getWidth(),
-                videoDecoder.getHeight(),
-                videoDecoder.getPixelFormat());
+    private synchronized void playStarted() {
+        if ( playing++ == 0 ) {
+            playedFrames.set( 0 );
+            playingSince = System.nanoTime();
+        }
+    }
 
-        /** A converter object we'll use to convert the picture in the video to a BGR_24 format that Java Swing
-         * can work with. You can still access the data directly in the MediaPicture if you prefer, but this
-         * abstracts away from this demo most of that byte-conversion work. Go read the source code for the
-         * converters if you're a glutton for punishment.
-         */
+    private synchronized void playFinished() {
+        playing--;
+    }
 
-        final MediaPictureConverter converter =
-                MediaPictureConverterFactory.createConverter(
-                        MediaPictureConverterFactory.HUMBLE_BGR_24,
-                        picture);
-        BufferedImage image = null;
+    /**
+     * Scans the file and records the zone colors of every sample point as the color track of the
+     * given Plex media part, which playback then reads instead of fetching and analyzing thumbnails.
+     * <p>
+     * The file is split into {@code huebris.index.segments} time segments (one per core by default),
+     * each scanned by its own demuxer and decoder. In {@code keyframe} mode (the default) a segment
+     * seeks to every sample point and decodes only the keyframe found there; {@code sequential} mode
+     * decodes every frame of the segment.
+     * </p>
+     *
+     * @param filename The file or URL to index.
+     * @param partId The Plex media part the file belongs to.
+     */
+    public void indexVideo(String filename, long partId) throws InterruptedException, IOException {
+        indexVideo( filename, partId, Progress.NONE );
+    }
 
-        /**
-         * This is the Window we will display in. See the code for this if you're curious, but to keep this demo clean
-         * we're 'simplifying' Java AWT UI updating code. This method just creates a single window on the UI thread, and blocks
-         * until it is displayed.
-         */
-        /**
-         * Media playback, like comedy, is all about timing. Here we're going to introduce <b>very very basic</b>
-         * timing. This code is deliberately kept simple (i.e. doesn't worry about A/V drift, garbage collection pause time, etc.)
-         * because that will quickly make things more complicated.
-         *
-         * But the basic idea is there are two clocks:
-         * <ul>
-         * <li>Player Clock: The time that the player sees (relative to the system clock).</li>
-         * <li>Stream Clock: Each stream has its own clock, and the ticks are measured in units of time-bases</li>
-         * </ul>
-         *
-         * And we need to convert between the two units of time. Each MediaPicture and MediaAudio object have associated
-         * time stamps, and much of the complexity in video players goes into making sure the right picture (or sound) is
-         * seen (or heard) at the right time. This is actually very tricky and many folks get it wrong -- watch enough
-         * Netflix and you'll see what I mean -- audio and video slightly out of sync. But for this demo, we're erring for
-         * 'simplicity' of code, not correctness. It is beyond the scope of this demo to make a full fledged video player.
-         */
+    /**
+     * Like {@link #indexVideo(String, long)}, reporting to the given progress as segments advance.
+     */
+    public void indexVideo(String filename, long partId, Progress progress) throws InterruptedException, IOException {
+        int intervalMs = colorTrackStore.getIntervalMs();
+        long durationMs;
+        try ( VideoSource source = VideoSource.open( filename ) ) {
+            durationMs = source.getDurationMs();
+        }
+        progress.started( durationMs );
+        int segmentCount = durationMs > 0 ? segments : 1;
+        long segmentMs = durationMs > 0 ? ((durationMs / segmentCount) / intervalMs + 1) * intervalMs : Long.MAX_VALUE;
+        long started = System.nanoTime();
+
+        NavigableMap<Long, Map<Integer, Color>> samples = new ConcurrentSkipListMap<>();
+        List<Future<Void>> futures = new ArrayList<>();
+        for ( int segment = 0; segment < segmentCount; segment++ ) {
+            long fromMs = segment * segmentMs;
+            long toMs = segment == segmentCount - 1 ? Long.MAX_VALUE : fromMs + segmentMs;
+            futures.add( segmentExecutor.submit( () -> {
+                try ( VideoSource source = VideoSource.open( filename ) ) {
+                    FrameHandler handler = samples::put;
+                    // Seeking needs a known end to stop at; without a duration decode straight through.
+                    if ( keyframeMode && durationMs > 0 ) {
+                        scanKeyframes( source, fromMs, toMs, intervalMs, progress, handler );
+                    } else {
+                        scanSequential( source, fromMs, toMs, progress, handler );
+                    }
+                }
+                return null;
+            } ) );
+        }
+        try {
+            for ( Future<Void> future : futures ) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            cancel( futures );
+            if ( e.getCause() instanceof InterruptedException ) {
+                throw (InterruptedException) e.getCause();
+            }
+            throw new IOException( "Could not index " + filename, e.getCause() );
+        } catch (InterruptedException e) {
+            // Don't leave the segments decoding for nobody.
+            cancel( futures );
+            throw e;
+        }
 
-        // Calculate the time BEFORE we start playing.
-        long systemStartTime = System.nanoTime();
-        // Set units for the system time, which because we used System.nanoTime will be in nanoseconds.
-        final Rational systemTimeBase = Rational.make(1, 1000000000);
-        // All the MediaPicture objects decoded from the videoDecoder will share this timebase.
-        final Rational streamTimebase = videoDecoder.getTimeBase();
+        try ( ColorTrackWriter writer = colorTrackStore.createWriter( partId, new ArrayList<>( lightZones.getLightZones().keySet() ) ) ) {
+            for ( Map.Entry<Long, Map<Integer, Color>> sample : samples.entrySet() ) {
+                writer.append( sample.getKey(), sample.getValue() );
+            }
+            writer.commit();
+            log.info( "Indexed " + filename + " as part " + partId + " (" + writer.getRecordCount() + " samples from "
+                    + samples.size() + " frames in " + (System.nanoTime() - started) / 1000000 + " ms)" );
+        }
+    }
+
+    private static void cancel(List<Future<Void>> futures) {
+        for ( Future<Void> future : futures ) {
+            future.cancel( true );
+        }
+    }
+
+    /**
+     * Decodes every frame between the two offsets and analyzes the ones that start a new scene.
+     */
+    private void scanSequential(VideoSource source, long fromMs, long toMs, Progress progress, FrameHandler handler) throws InterruptedException, IOException {
+        final ScanState state = new ScanState(handler, source, newSceneDetector(), progress);
+        state.fromMs = fromMs;
+        state.positionMs = fromMs;
+        if ( fromMs > 0 ) {
+            source.seek( fromMs );
+        }
 
         /**
          * Now, we start walking through the container looking at each packet. This
@@ -169,30 +277,32 @@ public class MediaScanService {
          * reallocating them. Each call to Humble resets objects to avoid
          * unnecessary reallocation.
          */
-        final MediaPacket packet = MediaPacket.make();
-        while (demuxer.read(packet) >= 0) {
+        final MediaPacket packet = source.packet;
+        final MediaPicture picture = source.picture;
+        while (source.demuxer.read(packet) >= 0) {
             /**
              * Now we have a packet, let's see if it belongs to our video stream
              */
-            if (packet.getStreamIndex() == videoStreamId) {
+            if (packet.getStreamIndex() == source.videoStreamId) {
                 /**
                  * A packet can actually contain multiple sets of samples (or frames of samples
                  * in decoding speak).  So, we may need to call decode  multiple
                  * times at different offsets in the packet's data.  We capture that here.
                  */
                 int offset = 0;
-                int bytesRead = 0;
+                int bytesRead;
                 do {
-                    bytesRead += videoDecoder.decode(picture, packet, offset);
+                    bytesRead = source.decoder.decode(picture, packet, offset);
                     if (picture.isComplete()) {
-                        if ( picture.getTimeStamp() * streamTimebase.getDouble() / 60.0 - lastLoggedTimeStamp > 0.25 ) {
-                            image = interpretImageForPicture(picture,
-                                    converter, image);
-                            lastLoggedTimeStamp = picture.getTimeStamp() * streamTimebase.getDouble() / 60.0;
+                        long timestampMs = source.toMillis( picture.getTimeStamp() );
+                        if ( timestampMs >= toMs ) {
+                            return;
                         }
+                        state.advance( timestampMs, 1 );
+                        interpretImageForPicture(picture, state);
                     }
                     offset += bytesRead;
-                } while (offset < packet.getSize());
+                } while (bytesRead > 0 && offset < packet.getSize());
             }
         }
 
@@ -201,45 +311,382 @@ public class MediaScanService {
         // to flush them. The convention to flush Encoders or Decoders in Humble Video
         // is to keep passing in null until incomplete samples or packets are returned.
         do {
-            videoDecoder.decode(picture, null, 0);
-            if (picture.isComplete()) {
-                image = interpretImageForPicture(picture, converter,
-                        image);
+            source.decoder.decode(picture, null, 0);
+            if (picture.isComplete() && source.toMillis( picture.getTimeStamp() ) < toMs) {
+                interpretImageForPicture(picture, state);
             }
         } while (picture.isComplete());
+    }
 
-        // It is good practice to close demuxers when you're done to free
-        // up file handles. Humble will EVENTUALLY detect if nothing else
-        // references this demuxer and close it then, but get in the habit
-        // of cleaning up after yourself, and your future girlfriend/boyfriend
-        // will appreciate it.
-        demuxer.close();
+    /**
+     * Seeks to every sample point between the two offsets and decodes only the keyframe at or
+     * before it. When keyframes are further apart than the sample interval the same keyframe is
+     * found again; it is analyzed once and the track writer fills the gap.
+     */
+    private void scanKeyframes(VideoSource source, long fromMs, long toMs, int sampleIntervalMs, Progress progress, FrameHandler handler) throws InterruptedException, IOException {
+        final ScanState state = new ScanState(handler, source, newSceneDetector(), progress);
+        state.positionMs = fromMs;
+        final MediaPicture picture = source.picture;
 
-        // similar with the demuxer, for the windowing system, clean up after yourself.
+        long endMs = Math.min( toMs, source.getDurationMs() );
+        for ( long sampleMs = fromMs; sampleMs < endMs; sampleMs += sampleIntervalMs ) {
+            long timestampMs = source.decodeKeyframe( sampleMs );
+            boolean decoded = timestampMs != VideoSource.NO_PICTURE && timestampMs != VideoSource.END_OF_FILE;
+            state.advance( Math.min( sampleMs + sampleIntervalMs, endMs ), decoded ? 1 : 0 );
+            if ( timestampMs == VideoSource.END_OF_FILE ) {
+                // Nothing left to read past this point.
+                return;
+            }
+            if ( !decoded ) {
+                // Same keyframe as the previous sample point; skip ahead past it.
+                continue;
+            }
+            if ( timestampMs >= toMs ) {
+                return;
+            }
+            Map<Integer, Color> colors = analyzeIfChanged( state, picture, timestampMs );
+            if ( colors == null ) {
+                // Same scene as the last keyframe analyzed; the track writer fills the gap.
+                continue;
+            }
+            handler.handle( Math.max( fromMs, timestampMs ), colors );
+            log.debug( picture.getFormattedTimeStamp() + " Keyframe Zone Colors: " + colors );
+        }
     }
 
     /**
-     * Takes the video picture and displays it at the right time.
+     * Hands the zone colors of the picture to the scan's handler whenever it starts a new scene.
      */
-    private BufferedImage interpretImageForPicture(final MediaPicture picture, final MediaPictureConverter converter, BufferedImage image) {
-
-//        long streamTimestamp = picture.getTimeStamp();
-//        // convert streamTimestamp into system units (i.e. nano-seconds)
-//        streamTimestamp = systemTimeBase.rescale(streamTimestamp - streamStartTime, streamTimebase);
-//        // get the current clock time, with our most accurate clock
-        image = converter.toImage(image, picture);
-        Color avg = mediaStreamService.averageColor(image, 0, 0, picture.getWidth(), picture.getHeight() );
-        try {
-            hueService.sendColorToHueLights(6, avg);
-            hueService.sendColorToHueLights(7, avg);
-        } catch (Exception e) {
-            log.error(e.getMessage() );
+    private void interpretImageForPicture(final MediaPicture picture, final ScanState state) throws IOException {
+        long timestampMs = state.source.toMillis( picture.getTimeStamp() );
+        if ( timestampMs < state.fromMs || state.scene.isTooSoon( timestampMs ) ) {
+            return;
+        }
+        Map<Integer, Color> colors = analyzeIfChanged( state, picture, timestampMs );
+        if ( colors == null ) {
+            return;
         }
-        log.info( picture.getFormattedTimeStamp() + " Avg Color: " + avg.toString() );
-        // And ask the UI thread to repaint with the new image.
-        return image;
+        state.handler.handle( timestampMs, colors );
+        log.debug( picture.getFormattedTimeStamp() + " Zone Colors: " + colors );
     }
 
-}
+    /**
+     * Compares the picture's signature with the last analyzed one and analyzes its zone colors only
+     * when the scene detector takes it; null when it was skipped.
+     */
+    private Map<Integer, Color> analyzeIfChanged(ScanState state, MediaPicture picture, long timestampMs) {
+        try ( PictureFrame frame = state.source.frame( picture ) ) {
+            FrameSignature signature = FrameSignature.of( frame.rows );
+            double change = state.signature == null ? Double.POSITIVE_INFINITY : signature.distance( state.signature );
+            if ( !state.scene.take( timestampMs, change ) ) {
+                skippedCounter.increment();
+                return null;
+            }
+            state.signature = signature;
+            analyzedCounter.increment();
+
+            long started = System.nanoTime();
+            Map<Integer, Color> colors = mediaStreamService.getZoneColors( frame.rows );
+            analysisTimer.record( System.nanoTime() - started, TimeUnit.NANOSECONDS );
+            return colors;
+        }
+    }
+
+    private SceneDetector newSceneDetector() {
+        return new SceneDetector( sceneMinIntervalMs, sceneMaxIntervalMs, sceneThreshold );
+    }
+
+    private interface FrameHandler {
+        void handle(long timestampMs, Map<Integer, Color> colors) throws IOException;
+    }
+
+    /**
+     * Everything one scan needs to remember between pictures, so concurrent scans never share state.
+     */
+    private static class ScanState {
+        private final FrameHandler handler;
+        private final VideoSource source;
+        private final SceneDetector scene;
+        private final Progress progress;
+        private FrameSignature signature;
+        private long fromMs;
+        /** How far progress has been told the scan got. */
+        private long positionMs;
+
+        private ScanState(FrameHandler handler, VideoSource source, SceneDetector scene, Progress progress) {
+            this.handler = handler;
+            this.source = source;
+            this.scene = scene;
+            this.progress = progress;
+        }
+
+        private void advance(long timestampMs, int frames) throws InterruptedException {
+            long mediaMs = Math.max( 0, timestampMs - positionMs );
+            positionMs = Math.max( positionMs, timestampMs );
+            progress.advance( mediaMs, frames );
+        }
+    }
 
+    /**
+     * A decoded picture readable as pixel rows, holding on to its planes until closed.
+     */
+    private static class PictureFrame implements AutoCloseable {
+        private final PixelRows rows;
+        private final Buffer[] planes;
+
+        private PictureFrame(PixelRows rows, Buffer... planes) {
+            this.rows = rows;
+            this.planes = planes;
+        }
+
+        @Override
+        public void close() {
+            // The planes are reference counted native memory; let go of them right away.
+            for ( Buffer plane : planes ) {
+                plane.delete();
+            }
+        }
+    }
+
+    /**
+     * An opened file with the decoder of its first video stream. Each scan opens its own, so
+     * segments can be decoded in parallel.
+     */
+    static class VideoSource implements AutoCloseable {
+        /** What {@link #decodeNext()} returns when the decode call did not complete a picture. */
+        static final long NO_PICTURE = Long.MIN_VALUE;
+        /** What {@link #decodeNext()} returns once the packet is used up. */
+        static final long END_OF_PACKET = Long.MAX_VALUE;
+        /** What {@link #decodeKeyframe(long)} returns when there is no keyframe left to find. */
+        static final long END_OF_FILE = Long.MAX_VALUE;
+
+        private final Demuxer demuxer;
+        private final MediaPacket packet;
+        private int videoStreamId = -1;
+        private Decoder decoder;
+        private long streamStartTime;
+        private Rational streamTimebase;
+        private MediaPicture picture;
+        /** Only set for pixel formats that cannot be read as planar 4:2:0. */
+        private MediaPictureConverter converter;
+        private BufferedImage image;
+        private boolean fullRange;
+        /** Where in the packet read last the next decode call starts, or -1 once it is used up. */
+        private int packetOffset = -1;
+        private long lastKeyframeMs = Long.MIN_VALUE;
+
+        VideoSource(Demuxer demuxer, MediaPacket packet) {
+            this.demuxer = demuxer;
+            this.packet = packet;
+        }
+
+        private static VideoSource open(String filename) throws InterruptedException, IOException {
+            /*
+             * Start by creating a container object, in this case a demuxer since
+             * we are reading, to get video data from.
+             */
+            VideoSource source = new VideoSource( Demuxer.make(), MediaPacket.make() );
+            try {
+                /*
+                 * Open the demuxer with the filename passed on.
+                 */
+                source.demuxer.open(filename, null, false, true, null, null);
+                source.findVideoStream( filename );
+                return source;
+            } catch (InterruptedException | IOException | RuntimeException e) {
+                try {
+                    source.close();
+                } catch (IOException | RuntimeException suppressed) {
+                    e.addSuppressed( suppressed );
+                }
+                throw e;
+            }
+        }
+
+        private void findVideoStream(String filename) throws InterruptedException, IOException {
+            /*
+             * Query how many streams the call to open found
+             */
+            int numStreams = demuxer.getNumStreams();
+
+            /*
+             * Iterate through the streams to find the first video stream
+             */
+            for (int i = 0; i < numStreams; i++) {
+                final DemuxerStream stream = demuxer.getStream(i);
+                final Decoder candidate = stream.getDecoder();
+                if (candidate != null && candidate.getCodecType() == MediaDescriptor.Type.MEDIA_VIDEO) {
+                    videoStreamId = i;
+                    decoder = candidate;
+                    streamStartTime = stream.getStartTime() == Global.NO_PTS ? 0 : stream.getStartTime();
+                    // stop at the first one.
+                    break;
+                }
+            }
+            if (videoStreamId == -1)
+                throw new RuntimeException("could not find video stream in container: " + filename);
+
+            /*
+             * Now we have found the video stream in this file.  Let's open up our decoder so it can
+             * do work.
+             */
+            decoder.open(null, null);
+            // All the MediaPicture objects decoded from the decoder will share this timebase.
+            streamTimebase = decoder.getTimeBase();
 
+            picture = MediaPicture.make(
+                    decoder.getWidth(),
+                    decoder.getHeight(),
+                    decoder.getPixelFormat());
+
+            /*
+             * Most video decodes to planar 4:2:0, which is analyzed in place. Anything else is converted
+             * to a BGR_24 image that Java can work with first.
+             */
+            PixelFormat.Type format = decoder.getPixelFormat();
+            if ( format == PixelFormat.Type.PIX_FMT_YUV420P || format == PixelFormat.Type.PIX_FMT_YUVJ420P ) {
+                fullRange = format == PixelFormat.Type.PIX_FMT_YUVJ420P;
+            } else {
+                converter = MediaPictureConverterFactory.createConverter(
+                        MediaPictureConverterFactory.HUMBLE_BGR_24,
+                        picture);
+            }
+        }
+
+        /**
+         * Planar 4:2:0 pictures are read straight from their planes; any other pixel format goes
+         * through the BGR24 converter first.
+         */
+        private PictureFrame frame(MediaPicture picture) {
+            if ( converter != null ) {
+                image = converter.toImage( image, picture );
+                return new PictureFrame( RasterPixels.rows( image ) );
+            }
+            Buffer luma = picture.getData( 0 );
+            Buffer u = picture.getData( 1 );
+            Buffer v = picture.getData( 2 );
+            return new PictureFrame( new YuvPlanes( picture.getWidth(), picture.getHeight(),
+                    luma.getByteBuffer( 0, luma.getBufferSize() ), picture.getLineSize( 0 ),
+                    u.getByteBuffer( 0, u.getBufferSize() ), v.getByteBuffer( 0, v.getBufferSize() ), picture.getLineSize( 1 ),
+                    fullRange ), luma, u, v );
+        }
+
+        /**
+         * Container duration in milliseconds, or 0 when the container does not know it.
+         */
+        private long getDurationMs() {
+            long duration = demuxer.getDuration();
+            return duration == Global.NO_PTS || duration <= 0 ? 0 : duration * 1000 / Global.DEFAULT_PTS_PER_SECOND;
+        }
+
+        private long toMillis(long timeStamp) {
+            return Math.round( (timeStamp - streamStartTime) * streamTimebase.getDouble() * 1000.0 );
+        }
+
+        private long toTimeStamp(long millis) {
+            return streamStartTime + Math.round( millis / 1000.0 / streamTimebase.getDouble() );
+        }
+
+        /**
+         * Positions the demuxer on the last keyframe at or before the offset.
+         */
+        void seek(long millis) throws InterruptedException, IOException {
+            long timeStamp = toTimeStamp( millis );
+            demuxer.seek( videoStreamId, Long.MIN_VALUE, timeStamp, timeStamp, 0 );
+        }
+
+        /**
+         * Seeks to the offset and decodes the keyframe found there, returning the offset of its
+         * picture. The decoder may still hand out pictures from before the seek; those are skipped.
+         * Returns {@link #NO_PICTURE} when the keyframe was decoded by an earlier call already or
+         * could not be decoded, and {@link #END_OF_FILE} when there is no keyframe left to find.
+         */
+        long decodeKeyframe(long millis) throws InterruptedException, IOException {
+            seek( millis );
+            long keyframeMs = NO_PICTURE;
+            while ( readVideoPacket() ) {
+                if ( keyframeMs == NO_PICTURE ) {
+                    if ( !isKeyPacket() ) {
+                        continue;
+                    }
+                    keyframeMs = packetMillis();
+                    if ( keyframeMs <= lastKeyframeMs ) {
+                        return NO_PICTURE;
+                    }
+                }
+                for ( long pictureMs = decodeNext(); pictureMs != END_OF_PACKET; pictureMs = decodeNext() ) {
+                    // Anything older than the keyframe is a leftover from before the seek.
+                    if ( pictureMs != NO_PICTURE && pictureMs >= keyframeMs ) {
+                        lastKeyframeMs = keyframeMs;
+                        return pictureMs;
+                    }
+                }
+            }
+            return keyframeMs == NO_PICTURE ? END_OF_FILE : NO_PICTURE;
+        }
+
+        /**
+         * Reads on to the next packet of the video stream; false at the end of the file.
+         */
+        boolean readVideoPacket() throws InterruptedException, IOException {
+            while ( demuxer.read( packet ) >= 0 ) {
+                if ( packet.getStreamIndex() == videoStreamId ) {
+                    packetOffset = 0;
+                    return true;
+                }
+            }
+            packetOffset = -1;
+            return false;
+        }
+
+        boolean isKeyPacket() {
+            return packet.isKeyPacket();
+        }
+
+        long packetMillis() {
+            return toMillis( packet.getPts() );
+        }
+
+        /**
+         * Decodes the next set of samples from the packet read last and returns the offset of the
+         * picture that completed, {@link #NO_PICTURE} when none did, or {@link #END_OF_PACKET} once
+         * the packet is used up.
+         */
+        long decodeNext() {
+            if ( packetOffset < 0 ) {
+                return END_OF_PACKET;
+            }
+            int bytesRead = decoder.decode( picture, packet, packetOffset );
+            packetOffset = bytesRead > 0 && packetOffset + bytesRead < packet.getSize() ? packetOffset + bytesRead : -1;
+            return picture.isComplete() ? toMillis( picture.getTimeStamp() ) : NO_PICTURE;
+        }
+
+        @Override
+        public void close() throws IOException {
+            // It is good practice to close demuxers when you're done to free
+            // up file handles. Humble will EVENTUALLY detect if nothing else
+            // references this demuxer and close it then, but get in the habit
+            // of cleaning up after yourself, and your future girlfriend/boyfriend
+            // will appreciate it.
+            try {
+                demuxer.close();
+            } catch (InterruptedException e) {
+                // Closing still has to let go of the native objects below; leave the interrupt for
+                // the caller to see.
+                Thread.currentThread().interrupt();
+            } finally {
+                // Native objects are reference counted and the garbage collector does not see their
+                // memory, so drop every reference this source took even when closing failed.
+                packet.delete();
+                if ( picture != null ) {
+                    picture.delete();
+                }
+                if ( decoder != null ) {
+                    decoder.delete();
+                }
+                demuxer.delete();
+            }
+        }
+    }
+
+}
@@ -1,180 +1,270 @@
 package com.huebris.plexhuebris.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.huebris.plexhuebris.color.ColorAnalyzer;
+import com.huebris.plexhuebris.color.ColorHistogram;
+import com.huebris.plexhuebris.color.DominantColor;
+import com.huebris.plexhuebris.color.LabColor;
+import com.huebris.plexhuebris.color.LabSmoother;
+import com.huebris.plexhuebris.color.PixelRows;
+import com.huebris.plexhuebris.color.RasterPixels;
+import com.huebris.plexhuebris.color.SceneDetector;
+import com.huebris.plexhuebris.index.ColorCache;
+import com.huebris.plexhuebris.index.ColorTrack;
+import com.huebris.plexhuebris.index.ColorTrackStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
-import javax.imageio.ImageIO;
-import javax.media.jai.Histogram;
-import javax.media.jai.JAI;
-import javax.media.jai.ParameterBlockJAI;
-import javax.media.jai.PlanarImage;
-import javax.media.jai.registry.RenderedRegistryMode;
+import javax.annotation.PreDestroy;
 import java.awt.*;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.io.InputStreamReader;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLEncoder;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Component
 public class MediaStreamService {
 
-    private HueService hueService;
-
-    private boolean running;
-    private boolean killThread;
+    private HueTransport hueTransport;
+    private LightZones lightZones;
+    private ColorTrackStore colorTrackStore;
+    private ColorCache colorCache;
+    private ColorAnalyzer colorAnalyzer;
+    private ColorHistogram colorHistogram;
+    private ThumbnailPrefetcher thumbnailPrefetcher;
+    private SessionTracker sessionTracker;
+    private ColorBroadcaster colorBroadcaster;
+
+    /** One sampling cycle; matches {@code hue.transition-ms} so each fade ends as the next begins. */
     private int sleepDurationMs = 2000;
-    private int lookAheadMs = 2000;
-
-    @Value("${plex.server}")
-    private String PLEX_SERVER;
-    @Value("${plex.port}")
-    private String PLEX_PORT;
-
-    @Value("${plex.token}")
-    private String PLEX_TOKEN;
-
-    private static int nSteps = 4;
-
-    private ExecutorService executor = Executors.newCachedThreadPool();
+    private int tickMs = 500;
+    private final double smoothingFactor;
+    private final double sceneCutDeltaE;
+    private final long sceneMinIntervalMs;
+    private final long sceneMaxIntervalMs;
+    private final double sceneColorThreshold;
+    private volatile long lookAheadMs;
+    private volatile long targetLookAheadMs;
+    private final boolean autoTune;
+    private final long maxLookAheadMs;
+    private final LatencyTracker latencyTracker;
+    private final Timer analysisTimer;
+
+    private final ScheduledExecutorService ticker;
+    private final ExecutorService workers;
+    private final Map<String, Room> rooms = new ConcurrentHashMap<>();
+
+    private volatile EngineState state = EngineState.IDLE;
+    private ScheduledFuture<?> ticks;
 
     private static final Logger log = LoggerFactory.getLogger( MediaStreamService.class );
 
-    public MediaStreamService(HueService hueService) {
-        this.hueService = hueService;
-
-        Runnable r = new Runnable() {
-            @Override
-            public void run() {
-                startServer();
-            }
-        };
-
-        Future future = executor.submit(r);
+    public MediaStreamService(HueTransport hueTransport, LightZones lightZones, ColorTrackStore colorTrackStore, ColorCache colorCache, ColorAnalyzer colorAnalyzer, ColorHistogram colorHistogram, ThumbnailPrefetcher thumbnailPrefetcher, SessionTracker sessionTracker,
+                              ColorBroadcaster colorBroadcaster, LatencyTracker latencyTracker, MeterRegistry meterRegistry,
+                              @Value("${huebris.engine.threads:4}") int workerThreads,
+                              @Value("${huebris.latency.auto-tune:true}") boolean autoTune,
+                              @Value("${huebris.latency.look-ahead-ms:2000}") long lookAheadMs,
+                              @Value("${huebris.latency.max-look-ahead-ms:10000}") long maxLookAheadMs,
+                              @Value("${huebris.smoothing.factor:0.6}") double smoothingFactor,
+                              @Value("${huebris.smoothing.scene-cut:40}") double sceneCutDeltaE,
+                              @Value("${huebris.scene.min-interval-ms:100}") long sceneMinIntervalMs,
+                              @Value("${huebris.scene.max-interval-ms:4000}") long sceneMaxIntervalMs,
+                              @Value("${huebris.scene.color-threshold:6}") double sceneColorThreshold) {
+        this.hueTransport = hueTransport;
+        this.lightZones = lightZones;
+        this.colorTrackStore = colorTrackStore;
+        this.colorCache = colorCache;
+        this.colorAnalyzer = colorAnalyzer;
+        this.colorHistogram = colorHistogram;
+        this.thumbnailPrefetcher = thumbnailPrefetcher;
+        this.sessionTracker = sessionTracker;
+        this.colorBroadcaster = colorBroadcaster;
+        this.latencyTracker = latencyTracker;
+        this.analysisTimer = meterRegistry.timer( "huebris.color.analysis", "source", "thumbnail" );
+        this.autoTune = autoTune;
+        this.lookAheadMs = lookAheadMs;
+        this.targetLookAheadMs = lookAheadMs;
+        this.maxLookAheadMs = maxLookAheadMs;
+        this.smoothingFactor = smoothingFactor;
+        this.sceneCutDeltaE = sceneCutDeltaE;
+        this.sceneMinIntervalMs = sceneMinIntervalMs;
+        this.sceneMaxIntervalMs = sceneMaxIntervalMs;
+        this.sceneColorThreshold = sceneColorThreshold;
+        this.ticker = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread thread = new Thread( r, "media-stream-ticker" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        this.workers = Executors.newFixedThreadPool( Math.max( 1, workerThreads ), r -> {
+            Thread thread = new Thread( r, "room-pipeline" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
 
+    public EngineState getState() {
+        return state;
     }
 
-    public void start() {
-        running = true;
+    public long getLookAheadMs() {
+        return lookAheadMs;
     }
 
-    public void stop() {
-        running = false;
+    public long getTargetLookAheadMs() {
+        return targetLookAheadMs;
     }
 
-    public void destroy() {
-        running = false;
-        killThread = true;
+    /**
+     * Starts ticking; the first tick runs right away. Ticks are only scheduled while playing,
+     * so an idle, paused or stopped engine uses no CPU at all.
+     */
+    public synchronized void start() {
+        if ( state == EngineState.PLAYING || ticker.isShutdown() ) {
+            return;
+        }
+        ticks = ticker.scheduleAtFixedRate( this::tick, 0, tickMs, TimeUnit.MILLISECONDS );
+        transition( EngineState.PLAYING );
     }
 
-    public void startServer() {
+    /**
+     * Stops ticking but keeps every room's colors and prefetched thumbnails for a resume.
+     */
+    public synchronized void pause() {
+        if ( state != EngineState.PLAYING ) {
+            return;
+        }
+        cancelTicks();
+        transition( EngineState.PAUSED );
+    }
 
-        double red = 0;
-        double green = 0;
-        double blue = 0;
+    public synchronized void stop() {
+        cancelTicks();
+        hueTransport.clear();
+        thumbnailPrefetcher.clear();
+        rooms.clear();
+        if ( state != EngineState.STOPPED ) {
+            transition( EngineState.STOPPED );
+        }
+    }
 
-        while ( !killThread ) {
+    @PreDestroy
+    public void destroy() throws InterruptedException {
+        stop();
+        ticker.shutdownNow();
+        workers.shutdownNow();
+        ticker.awaitTermination( 1, TimeUnit.SECONDS );
+        workers.awaitTermination( 1, TimeUnit.SECONDS );
+    }
 
-            if ( running ) {
-                MediaInformation mediaInformation = getMediaInformation();
-                if ( mediaInformation.getVideoId() > 0l ) {
-                    BufferedImage bufferedImage = getImage( mediaInformation.getVideoId(), mediaInformation.getTimeStampOffset()  );
-                    Color c = getImageHistogram( bufferedImage );
+    private void cancelTicks() {
+        if ( ticks != null ) {
+            ticks.cancel( false );
+            ticks = null;
+        }
+    }
 
-                    double rStep = ((double)c.getRed() - red) / (double)nSteps;
-                    double gStep = ((double)c.getGreen() - green) / (double)nSteps;
-                    double bStep = ((double)c.getBlue() - blue) / (double)nSteps;
+    private void transition(EngineState next) {
+        log.info( "Playback engine " + state + " -> " + next );
+        state = next;
+    }
 
-                    for ( int i = 0; i < nSteps; i++ ) {
-                        double tmpRed = red + (double)i * rStep;
-                        double tmpGreen = green + (double)i * gStep;
-                        double tmpBlue = blue + (double)i * bStep;
-                        Color z = new Color( getColor(tmpRed), getColor(tmpGreen), getColor(tmpBlue));
-                        log.info( "  Requesting Color Change(" + i + ") to " + z );
-                        hueService.sendColorToHueLights(new ArrayList<>(Arrays.asList(6,7)), z);
+    /**
+     * Every tick hands each playing room to the worker pool, unless the room is still busy with
+     * its previous tick, so a slow room never holds up the others or piles up work.
+     */
+    private void tick() {
+        if ( sessionTracker.getPlayers().isEmpty() ) {
+            // Every session ended without a stop webhook reaching us.
+            stop();
+            return;
+        }
+        tuneLookAhead();
+        rooms.keySet().retainAll( sessionTracker.getPlayers() );
+        for ( String player : sessionTracker.getPlayers() ) {
+            Room room = rooms.computeIfAbsent( player, Room::new );
+            if ( room.busy.compareAndSet( false, true ) ) {
+                try {
+                    workers.execute( () -> {
                         try {
-                            Thread.sleep(sleepDurationMs/nSteps);
-                        } catch (InterruptedException e) {
+                            room.tick();
+                        } catch (RuntimeException e) {
                             log.error(e.getMessage(), e);
+                        } finally {
+                            room.busy.set( false );
                         }
-                        if ( !running ) {
-                            break;
-                        }
-                    }
-                    red = c.getRed();
-                    green = c.getGreen();
-                    blue = c.getBlue();
-                }            }
+                    } );
+                } catch (RejectedExecutionException e) {
+                    // Shutting down.
+                    room.busy.set( false );
+                }
+            }
         }
     }
 
-    private int getColor(double rawColorValue) {
-        long val = Math.round( rawColorValue);
-        if( val < 0 )
-            val = 0;
-
-        if(val > 255)
-            val = 255;
-        return (int)val;
-    }
-    private MediaInformation getMediaInformation() {
-        MediaInformation result = new MediaInformation();
-        String xml = null;
-        try {
-            xml = getHTML( PLEX_SERVER + ":" + PLEX_PORT + "/status/sessions?X-Plex-Token=" + PLEX_TOKEN );
-            XmlMapper xmlMapper = new XmlMapper();
-            JsonNode node = xmlMapper.readTree(xml.getBytes());
-            result.setTimeStampOffset( node.get("Video").get("viewOffset").asLong() );
-            result.setVideoId(node.get("Video").get("Media").get("Part").get("id").asLong());
-            log.info( "Retrieved Video Information");
-        } catch (Exception e) {
-            log.error(e.getMessage(), e);
+    /**
+     * Colors from the precomputed track of the media part, or null when the part has not been
+     * indexed for the given lights.
+     */
+    private Map<Integer, Color> getIndexedColors(long videoId, long offsetMs, List<Integer> lights) {
+        ColorTrack track = colorTrackStore.find( videoId );
+        if ( track == null ) {
+            return null;
         }
-        return result;
+        Map<Integer, Color> colors = track.colorsAt( offsetMs );
+        if ( colors == null || !colors.keySet().containsAll( lights ) ) {
+            return null;
+        }
+        colors.keySet().retainAll( lights );
+        return colors;
     }
 
-    private BufferedImage getImage(long videoId, long timeStampOffset) {
-
-        String imageTranscode = "/library/parts/" + videoId + "/indexes/sd/" + (timeStampOffset + lookAheadMs) + "?X-Plex-Token=" + PLEX_TOKEN;
-        try {
-            URL url = new URL(PLEX_SERVER + ":" + PLEX_PORT + "/photo/:/transcode?X-Plex-Token=" + PLEX_TOKEN + "&width=700&height=394&minSize=1&url=" + URLEncoder.encode( imageTranscode, "UTF-8"));
-            BufferedImage img = ImageIO.read(url);
-            log.info( " Got New Image");
-            return img;
-
-        } catch (IOException e) {
-            log.error( e.getMessage(), e);
+    /**
+     * A frame's color should be halfway through its fade when the screen shows that frame, so the
+     * look-ahead is the estimated latency plus half a cycle. It moves a quarter of the way towards
+     * that per tick, so a single slow request does not throw it around. Only the ticker calls
+     * this, once per tick before the rooms run, so every room sees the same value.
+     */
+    private void tuneLookAhead() {
+        if ( autoTune ) {
+            targetLookAheadMs = Math.max( 0, Math.min( latencyTracker.getLatencyMs() + sleepDurationMs / 2, maxLookAheadMs ) );
+            lookAheadMs += (targetLookAheadMs - lookAheadMs) / 4;
         }
+    }
 
+    public Map<Integer, Color> getZoneColors(BufferedImage bi ) {
+        return getZoneColors( bi, lightZones.getLightZones().keySet() );
+    }
 
-        return null;
+    /**
+     * The dominant color of each light's screen zone, all zones computed in one pass over the frame.
+     */
+    public Map<Integer, Color> getZoneColors(BufferedImage bi, Collection<Integer> lights ) {
+        return getZoneColors( RasterPixels.rows( bi ), lights );
+    }
+
+    public Map<Integer, Color> getZoneColors(PixelRows frame ) {
+        return getZoneColors( frame, lightZones.getLightZones().keySet() );
     }
 
-    private String getHTML(String urlToRead) throws Exception {
-        StringBuilder result = new StringBuilder();
-        URL url = new URL(urlToRead);
-        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-        conn.setRequestMethod("GET");
-        BufferedReader rd = new BufferedReader(new InputStreamReader(conn.getInputStream()));
-        String line;
-        while ((line = rd.readLine()) != null) {
-            result.append(line);
+    public Map<Integer, Color> getZoneColors(PixelRows frame, Collection<Integer> lights ) {
+        Map<Integer, DominantColor> dominant = colorHistogram.dominantColors( frame, lightZones.regionsFor( lights, frame.getWidth(), frame.getHeight() ) );
+        Map<Integer, Color> result = new LinkedHashMap<>();
+        for ( Map.Entry<Integer, DominantColor> entry : dominant.entrySet() ) {
+            result.put( entry.getKey(), entry.getValue().getColor() );
         }
-        rd.close();
-        return result.toString();
+        return result;
     }
 
     /*
@@ -182,159 +272,107 @@ public class MediaStreamService {
      * are your width and height respectively
      */
     public Color averageColor(BufferedImage bi, int x0, int y0, int w, int h) {
-        int x1 = x0 + w;
-        int y1 = y0 + h;
-        long sumr = 0, sumg = 0, sumb = 0;
-        long num = 0;
-        for (int x = x0; x < x1; x++) {
-            for (int y = y0; y < y1; y++) {
-                Color pixel = new Color(bi.getRGB(x, y));
-                sumr += pixel.getRed();
-                sumg += pixel.getGreen();
-                sumb += pixel.getBlue();
-                num++;
-            }
-        }
-        Color result = null;
-        try {
-            result = new Color((int)(sumr / num), (int)(sumg / num), (int)(sumb / num));
-        } catch ( Exception e ) {
-            log.error( e.getMessage(), e);
-        }
-        return result;
+        return colorAnalyzer.analyze( bi, x0, y0, w, h ).getAverage();
     }
 
-    private Color getImageHistogram(BufferedImage bi ) {
-        // Set up the parameters for the Histogram object.
-        int[] bins = {256, 256, 256};             // The number of bins.
-        double[] low = {0.0D, 0.0D, 0.0D};        // The low value.
-        double[] high = {256.0D, 256.0D, 256.0D}; // The high value.
-        // Construct the Histogram object.
-        Histogram hist = new Histogram(bins, low, high);
-        // Create the parameter block.
-        PlanarImage planarImage = PlanarImage.wrapRenderedImage( bi );
-
-
-        ParameterBlockJAI pb =
-                new ParameterBlockJAI("Histogram",
-                        RenderedRegistryMode.MODE_NAME);
-
-        pb.setSource("source0", planarImage);
-        pb.setParameter("numBins", new int[]{128,128,128});
-
-        try{
-            PlanarImage dst = JAI.create("histogram", pb,null);
-            hist = (Histogram) dst.getProperty("histogram");
-            // Print 3-band histogram.
-
-            int r = (int)(indexOfMax( hist.getBins(0)) * 255.0/128.0);
-            int g = (int)(indexOfMax( hist.getBins(1)) * 255.0/128.0);
-            int b = (int)(indexOfMax( hist.getBins(2)) * 255.0/128.0);
-
-            return new Color( r, g, b );
-
-        } catch (Throwable t) {
-            log.error( t.getMessage(), t);
-        }
-        return null;
-        // Retrieve the histogram data.
-    }
-    private int indexOfMax( int[] vals ) {
-        int result = 0;
-        for ( int i = 1; i < vals.length; i++ ) {
-            if ( vals[i] > vals[result] ) {
-                result = i;
-            }
-        }
-        return result;
-    }
     public Color mode(BufferedImage bi, int x0, int y0, int w, int h) {
-
-        HashMap<Integer, Integer> red = new LinkedHashMap<>();
-        HashMap<Integer, Integer> blue = new LinkedHashMap<>();
-        HashMap<Integer, Integer> green = new LinkedHashMap<>();
-
-        int x1 = x0 + w;
-        int y1 = y0 + h;
-        long sumr = 0, sumg = 0, sumb = 0;
-        long num = 0;
-
-        int rMax = 0;
-        int rValue = 0;
-
-        int gMax = 0;
-        int gValue = 0;
-
-        int bMax = 0;
-        int bValue = 0;
-
-        for (int x = x0; x < x1; x++) {
-            for (int y = y0; y < y1; y++) {
-                Color pixel = new Color(bi.getRGB(x, y));
-
-                Integer r = pixel.getRed();
-                Integer currentValue = red.get( r );
-                if ( currentValue == null ) {
-                    currentValue = 0;
-                }
-                red.put( r, currentValue++ );
-
-                if ( currentValue > rMax ) {
-                    rMax = currentValue;
-                    rValue = r;
-                }
-
-                Integer g = pixel.getRed();
-                currentValue = green.get( g );
-                if ( currentValue == null ) {
-                    currentValue = 0;
-                }
-                green.put( g, currentValue++ );
-                if ( currentValue > gMax ) {
-                    gMax = currentValue;
-                    gValue = g;
-                }
-
-
-                Integer b = pixel.getBlue();
-                currentValue = blue.get( b );
-                if ( currentValue == null ) {
-                    currentValue = 0;
-                }
-                blue.put( b, currentValue++ );
-                if ( currentValue > bMax ) {
-                    bMax = currentValue;
-                    bValue = b;
-                }
-            }
-        }
-
-        Color result = null;
-        try {
-            result = new Color(rValue, gValue, bValue);
-        } catch ( Exception e ) {
-            log.error( e.getMessage(), e);
-        }
-        return result;
+        return colorAnalyzer.analyze( bi, x0, y0, w, h ).getMode();
     }
-    private class MediaInformation {
-        private long videoId;
-        private long timeStampOffset;
 
-        public long getVideoId() {
-            return videoId;
+    /**
+     * One player and its room's lights. Every tick looks at the colors at the player's position,
+     * every tick for an indexed part and once per thumbnail otherwise. Only a scene change or a
+     * color shift of at least {@code huebris.scene.color-threshold} (CIE76), or the maximum interval
+     * passing, gets them smoothed and sent as a single command; the bulbs fade to it on their own.
+     */
+    private class Room {
+        private final String player;
+        private final AtomicBoolean busy = new AtomicBoolean();
+        private final LabSmoother smoother = new LabSmoother( smoothingFactor, sceneCutDeltaE );
+        private final SceneDetector scene = new SceneDetector( sceneMinIntervalMs, sceneMaxIntervalMs, sceneColorThreshold );
+        private Map<Integer, Color> taken;
+        private long partId;
+        private long sample = -1;
+
+        private Room(String player) {
+            this.player = player;
         }
 
-        public void setVideoId(long videoId) {
-            this.videoId = videoId;
+        private void tick() {
+            PlaybackClock clock = sessionTracker.getClock( player );
+            if ( clock == null || !clock.isPlaying() || clock.getPartId() <= 0l ) {
+                return;
+            }
+            List<Integer> lights = lightZones.lightsFor( player, sessionTracker.getPlayerTitle( player ) );
+            if ( lights.isEmpty() ) {
+                return;
+            }
+            long offset = clock.getOffsetMs() + lookAheadMs;
+            boolean samePart = clock.getPartId() == partId;
+            // Thumbnails only exist once per interval; an indexed track has colors for every tick.
+            long sample = colorTrackStore.find( clock.getPartId() ) == null ? offset / sleepDurationMs : offset / tickMs;
+            if ( samePart && (sample == this.sample || scene.isTooSoon( offset )) ) {
+                return;
+            }
+            Map<Integer, Color> target = nextTarget( clock.getPartId(), offset, lights );
+            if ( target == null ) {
+                // Not fetched yet; try again next tick rather than wait on Plex.
+                return;
+            }
+            if ( !samePart ) {
+                smoother.reset();
+                scene.reset();
+                taken = null;
+            }
+            partId = clock.getPartId();
+            this.sample = sample;
+            if ( !scene.take( offset, change( taken, target ) ) ) {
+                return;
+            }
+            taken = target;
+
+            Map<Integer, Color> colors = smoother.apply( target );
+            log.debug( "  Requesting Color Change for " + player + " to " + colors );
+            hueTransport.submit( colors );
+            colorBroadcaster.publish( "session", player, offset, colors );
         }
 
-        public long getTimeStampOffset() {
-            return timeStampOffset;
+        /**
+         * The largest color difference of any light, infinite when a light is new.
+         */
+        private double change(Map<Integer, Color> from, Map<Integer, Color> to) {
+            double change = 0;
+            for ( Map.Entry<Integer, Color> entry : to.entrySet() ) {
+                Color previous = from == null ? null : from.get( entry.getKey() );
+                if ( previous == null ) {
+                    return Double.POSITIVE_INFINITY;
+                }
+                change = Math.max( change, LabColor.deltaE( LabColor.fromColor( previous ), LabColor.fromColor( entry.getValue() ) ) );
+            }
+            return change;
         }
 
-        public void setTimeStampOffset(long timeStampOffset) {
-            this.timeStampOffset = timeStampOffset;
+        private Map<Integer, Color> nextTarget(long partId, long offset, List<Integer> lights) {
+            Map<Integer, Color> indexed = getIndexedColors( partId, offset, lights );
+            if ( indexed != null ) {
+                return indexed;
+            }
+            Map<Integer, Color> cached = colorCache.get( partId, offset, lights );
+            thumbnailPrefetcher.advance( player, partId, offset, bucket -> colorCache.contains( partId, bucket, lights ) );
+            if ( cached != null ) {
+                return cached;
+            }
+            BufferedImage bufferedImage = thumbnailPrefetcher.get( player, partId, offset );
+            if ( bufferedImage == null ) {
+                return null;
+            }
+            long started = System.nanoTime();
+            Map<Integer, Color> colors = getZoneColors( bufferedImage, lights );
+            long elapsed = System.nanoTime() - started;
+            latencyTracker.record( LatencyTracker.ANALYSIS, elapsed );
+            analysisTimer.record( elapsed, TimeUnit.NANOSECONDS );
+            colorCache.put( partId, offset, colors );
+            return colors;
         }
     }
 }
@@ -0,0 +1,103 @@
+package com.huebris.plexhuebris.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Position of the media part being played, extrapolated from the last known position (an anchor)
+ * with a monotonic clock. A new anchor for the same playing part that lands within the tolerance
+ * only pulls the clock halfway, so the coarse offsets Plex reports do not make the position jitter;
+ * anything further off is taken as a seek and applied as is.
+ */
+public class PlaybackClock {
+
+    private final long toleranceMs;
+    private final LongSupplier nanoTime;
+
+    private long partId;
+    private long anchorOffsetMs;
+    private long anchorNanos;
+    private boolean playing;
+    private long driftMs;
+
+    public PlaybackClock(long toleranceMs) {
+        this( toleranceMs, System::nanoTime );
+    }
+
+    PlaybackClock(long toleranceMs, LongSupplier nanoTime) {
+        this.toleranceMs = toleranceMs;
+        this.nanoTime = nanoTime;
+        this.anchorNanos = nanoTime.getAsLong();
+    }
+
+    public synchronized void anchor(long partId, long offsetMs, boolean playing) {
+        long now = nanoTime.getAsLong();
+        if ( partId == this.partId && this.playing && playing ) {
+            long expected = offsetAt( now );
+            driftMs = offsetMs - expected;
+            if ( Math.abs( driftMs ) <= toleranceMs ) {
+                offsetMs = expected + driftMs / 2;
+            }
+        }
+        this.partId = partId;
+        this.anchorOffsetMs = offsetMs;
+        this.anchorNanos = now;
+        this.playing = playing;
+    }
+
+    /**
+     * Starts or resumes the clock, at the given offset or, when it is negative, where it stopped.
+     */
+    public synchronized void play(long offsetMs) {
+        long now = nanoTime.getAsLong();
+        anchorOffsetMs = offsetMs < 0 ? offsetAt( now ) : offsetMs;
+        anchorNanos = now;
+        playing = true;
+    }
+
+    /**
+     * Freezes the clock, at the given offset or, when it is negative, where it is now.
+     */
+    public synchronized void pause(long offsetMs) {
+        long now = nanoTime.getAsLong();
+        anchorOffsetMs = offsetMs < 0 ? offsetAt( now ) : offsetMs;
+        anchorNanos = now;
+        playing = false;
+    }
+
+    public synchronized void stop() {
+        partId = 0;
+        anchorOffsetMs = 0;
+        playing = false;
+    }
+
+    public synchronized long getPartId() {
+        return partId;
+    }
+
+    public synchronized long getOffsetMs() {
+        return offsetAt( nanoTime.getAsLong() );
+    }
+
+    public synchronized boolean isPlaying() {
+        return playing;
+    }
+
+    /**
+     * How far the last anchor for the playing part was from the extrapolated position.
+     */
+    public synchronized long getDriftMs() {
+        return driftMs;
+    }
+
+    /**
+     * How long ago the clock was last anchored, started or paused.
+     */
+    public synchronized long getIdleMs() {
+        return TimeUnit.NANOSECONDS.toMillis( nanoTime.getAsLong() - anchorNanos );
+    }
+
+    private long offsetAt(long now) {
+        return playing ? anchorOffsetMs + TimeUnit.NANOSECONDS.toMillis( now - anchorNanos ) : anchorOffsetMs;
+    }
+}
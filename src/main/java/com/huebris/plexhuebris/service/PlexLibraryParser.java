@@ -0,0 +1,62 @@
+package com.huebris.plexhuebris.service;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the file parts of every video out of a library section listing, straight from the stream.
+ * Music tracks and the shows or seasons a listing may contain instead of episodes are skipped.
+ */
+public class PlexLibraryParser {
+
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    public PlexLibraryParser() {
+        factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+        factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+    }
+
+    public List<PlexLibraryPart> parse(InputStream in) throws XMLStreamException {
+        List<PlexLibraryPart> parts = new ArrayList<>();
+        XMLStreamReader reader = factory.createXMLStreamReader( in );
+        try {
+            int depth = 0;
+            int videoDepth = 0;
+            while ( reader.hasNext() ) {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.START_ELEMENT ) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    if ( "Video".equals( name ) ) {
+                        videoDepth = depth;
+                    } else if ( videoDepth > 0 && "Part".equals( name ) ) {
+                        PlexLibraryPart part = new PlexLibraryPart();
+                        part.setPartId( parseLong( reader.getAttributeValue( null, "id" ) ) );
+                        part.setFile( reader.getAttributeValue( null, "file" ) );
+                        part.setDurationMs( parseLong( reader.getAttributeValue( null, "duration" ) ) );
+                        if ( part.getPartId() > 0 && part.getFile() != null ) {
+                            parts.add( part );
+                        }
+                    }
+                } else if ( event == XMLStreamConstants.END_ELEMENT ) {
+                    if ( depth == videoDepth ) {
+                        videoDepth = 0;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return parts;
+    }
+
+    private static long parseLong(String value) {
+        return value == null || value.isEmpty() ? 0 : Long.parseLong( value );
+    }
+}
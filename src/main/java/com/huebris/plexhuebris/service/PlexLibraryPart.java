@@ -0,0 +1,41 @@
+package com.huebris.plexhuebris.service;
+
+/**
+ * One file of a video in a Plex library section, as listed by {@code /library/sections/{id}/all}.
+ */
+public class PlexLibraryPart {
+
+    private long partId;
+    private String file;
+    private long durationMs;
+
+    public long getPartId() {
+        return partId;
+    }
+
+    public void setPartId(long partId) {
+        this.partId = partId;
+    }
+
+    /**
+     * The path on the Plex server, which this application has to be able to read as well.
+     */
+    public String getFile() {
+        return file;
+    }
+
+    public void setFile(String file) {
+        this.file = file;
+    }
+
+    /**
+     * 0 when Plex has not analyzed the file yet.
+     */
+    public long getDurationMs() {
+        return durationMs;
+    }
+
+    public void setDurationMs(long durationMs) {
+        this.durationMs = durationMs;
+    }
+}
@@ -0,0 +1,60 @@
+package com.huebris.plexhuebris.service;
+
+/**
+ * One video playing on one Plex player, as listed by {@code /status/sessions}.
+ */
+public class PlexSession {
+
+    private String player;
+    private String playerTitle;
+    private String state;
+    private long partId;
+    private long viewOffsetMs;
+
+    /**
+     * The player's machine identifier, which webhooks report as the player uuid.
+     */
+    public String getPlayer() {
+        return player;
+    }
+
+    public void setPlayer(String player) {
+        this.player = player;
+    }
+
+    public String getPlayerTitle() {
+        return playerTitle;
+    }
+
+    public void setPlayerTitle(String playerTitle) {
+        this.playerTitle = playerTitle;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public void setState(String state) {
+        this.state = state;
+    }
+
+    public boolean isPlaying() {
+        return !"paused".equals( state );
+    }
+
+    public long getPartId() {
+        return partId;
+    }
+
+    public void setPartId(long partId) {
+        this.partId = partId;
+    }
+
+    public long getViewOffsetMs() {
+        return viewOffsetMs;
+    }
+
+    public void setViewOffsetMs(long viewOffsetMs) {
+        this.viewOffsetMs = viewOffsetMs;
+    }
+}
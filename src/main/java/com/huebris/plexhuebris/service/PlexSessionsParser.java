@@ -0,0 +1,65 @@
+package com.huebris.plexhuebris.service;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads every playing video out of a {@code /status/sessions} response straight from the
+ * stream, keeping only the attributes the engine needs instead of building a document tree.
+ */
+public class PlexSessionsParser {
+
+    private final XMLInputFactory factory = XMLInputFactory.newInstance();
+
+    public PlexSessionsParser() {
+        factory.setProperty( XMLInputFactory.SUPPORT_DTD, false );
+        factory.setProperty( XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false );
+    }
+
+    public List<PlexSession> parse(InputStream in) throws XMLStreamException {
+        List<PlexSession> sessions = new ArrayList<>();
+        XMLStreamReader reader = factory.createXMLStreamReader( in );
+        try {
+            int depth = 0;
+            PlexSession session = null;
+            while ( reader.hasNext() ) {
+                int event = reader.next();
+                if ( event == XMLStreamConstants.START_ELEMENT ) {
+                    depth++;
+                    String name = reader.getLocalName();
+                    // <MediaContainer> is depth 1, each session's <Video> depth 2.
+                    if ( depth == 2 && "Video".equals( name ) ) {
+                        session = new PlexSession();
+                        session.setViewOffsetMs( parseLong( reader.getAttributeValue( null, "viewOffset" ) ) );
+                    } else if ( session != null && "Part".equals( name ) && session.getPartId() == 0 ) {
+                        session.setPartId( parseLong( reader.getAttributeValue( null, "id" ) ) );
+                    } else if ( session != null && "Player".equals( name ) ) {
+                        session.setPlayer( reader.getAttributeValue( null, "machineIdentifier" ) );
+                        session.setPlayerTitle( reader.getAttributeValue( null, "title" ) );
+                        session.setState( reader.getAttributeValue( null, "state" ) );
+                    }
+                } else if ( event == XMLStreamConstants.END_ELEMENT ) {
+                    if ( depth == 2 && session != null ) {
+                        if ( session.getPlayer() != null && session.getPartId() > 0 ) {
+                            sessions.add( session );
+                        }
+                        session = null;
+                    }
+                    depth--;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return sessions;
+    }
+
+    private static long parseLong(String value) {
+        return value == null || value.isEmpty() ? 0 : Long.parseLong( value );
+    }
+}
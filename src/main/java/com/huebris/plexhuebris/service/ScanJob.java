@@ -0,0 +1,256 @@
+package com.huebris.plexhuebris.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * One queued library scan: the files of a Plex library section, optionally only those under a
+ * folder, indexed one after another. Progress is measured in media time, so the ETA holds up
+ * across files of very different length; time spent held back does not count towards the
+ * throughput.
+ */
+public class ScanJob implements MediaScanService.Progress {
+
+    public enum State { QUEUED, RUNNING, PAUSED, DONE, FAILED, CANCELLED }
+
+    private final long id;
+    private final long section;
+    private final String folder;
+    private final boolean force;
+    private final BooleanSupplier hold;
+    private final long holdPollMs;
+    private final LongSupplier nanoTime;
+
+    private volatile boolean cancelled;
+
+    private State state = State.QUEUED;
+    private String error;
+    private int totalFiles;
+    private int doneFiles;
+    private int failedFiles;
+    private int skippedFiles;
+    private String currentFile;
+    private long totalMs;
+    private long completedMs;
+    private long fileMs;
+    private long fileDurationMs;
+    private long frames;
+    private long startedAt;
+    private long finishedAt;
+    private long pausedAt;
+    private long pausedNanos;
+
+    /**
+     * @param hold       true while the scan should wait, e.g. because something is playing
+     * @param holdPollMs how often to ask again while held
+     */
+    public ScanJob(long id, long section, String folder, boolean force, BooleanSupplier hold, long holdPollMs) {
+        this( id, section, folder, force, hold, holdPollMs, System::nanoTime );
+    }
+
+    ScanJob(long id, long section, String folder, boolean force, BooleanSupplier hold, long holdPollMs, LongSupplier nanoTime) {
+        this.id = id;
+        this.section = section;
+        this.folder = folder;
+        this.force = force;
+        this.hold = hold;
+        this.holdPollMs = Math.max( 1, holdPollMs );
+        this.nanoTime = nanoTime;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getSection() {
+        return section;
+    }
+
+    /**
+     * Only files below this folder are scanned; null for the whole section.
+     */
+    public String getFolder() {
+        return folder;
+    }
+
+    /**
+     * Whether files that already have a color track are scanned again.
+     */
+    public boolean isForce() {
+        return force;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Done, failed or cancelled; nothing about the job changes any more.
+     */
+    synchronized boolean isFinished() {
+        return state == State.DONE || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    /**
+     * Stops the job at its next checkpoint; one that has not started yet never will.
+     */
+    public synchronized void cancel() {
+        cancelled = true;
+        if ( state == State.QUEUED ) {
+            state = State.CANCELLED;
+        }
+    }
+
+    synchronized void start(List<PlexLibraryPart> parts, int skipped) {
+        state = State.RUNNING;
+        startedAt = nanoTime.getAsLong();
+        totalFiles = parts.size();
+        skippedFiles = skipped;
+        for ( PlexLibraryPart part : parts ) {
+            totalMs += part.getDurationMs();
+        }
+    }
+
+    synchronized void beginFile(PlexLibraryPart part) {
+        currentFile = part.getFile();
+        fileDurationMs = part.getDurationMs();
+        fileMs = 0;
+    }
+
+    synchronized void finishFile(boolean indexed) {
+        if ( indexed ) {
+            doneFiles++;
+        } else {
+            failedFiles++;
+        }
+        completedMs += fileDurationMs;
+        currentFile = null;
+        fileDurationMs = 0;
+        fileMs = 0;
+    }
+
+    synchronized void finish(State state, String error) {
+        resume();
+        this.state = state;
+        this.error = error;
+        this.currentFile = null;
+        this.finishedAt = nanoTime.getAsLong();
+    }
+
+    /**
+     * The decoder knows the duration better than a library that has not analyzed the file yet.
+     */
+    @Override
+    public synchronized void started(long durationMs) {
+        if ( durationMs > 0 ) {
+            totalMs += durationMs - fileDurationMs;
+            fileDurationMs = durationMs;
+        }
+    }
+
+    @Override
+    public void advance(long mediaMs, int frames) throws InterruptedException {
+        synchronized (this) {
+            fileMs = fileDurationMs > 0 ? Math.min( fileDurationMs, fileMs + mediaMs ) : fileMs + mediaMs;
+            this.frames += frames;
+        }
+        checkpoint();
+    }
+
+    /**
+     * Returns once the job may go on, waiting as long as it is held, and throws once it was cancelled.
+     */
+    public void checkpoint() throws InterruptedException {
+        while ( true ) {
+            if ( cancelled || Thread.currentThread().isInterrupted() ) {
+                throw new InterruptedException( "Scan job " + id + " was cancelled" );
+            }
+            if ( !hold.getAsBoolean() ) {
+                resume();
+                return;
+            }
+            pause();
+            TimeUnit.MILLISECONDS.sleep( holdPollMs );
+        }
+    }
+
+    private synchronized void pause() {
+        if ( state == State.RUNNING ) {
+            state = State.PAUSED;
+            pausedAt = nanoTime.getAsLong();
+        }
+    }
+
+    private synchronized void resume() {
+        if ( state == State.PAUSED ) {
+            state = State.RUNNING;
+            pausedNanos += nanoTime.getAsLong() - pausedAt;
+        }
+    }
+
+    /**
+     * Share of the media time scanned so far, between 0 and 1.
+     */
+    public synchronized double getProgress() {
+        if ( state == State.DONE ) {
+            return 1;
+        }
+        if ( totalMs > 0 ) {
+            return Math.min( 1, (double)(completedMs + fileMs) / totalMs );
+        }
+        return totalFiles == 0 ? 0 : (double)(doneFiles + failedFiles) / totalFiles;
+    }
+
+    public synchronized double getFramesPerSecond() {
+        long activeNanos = getActiveNanos();
+        return activeNanos <= 0 ? 0 : frames * (double)TimeUnit.SECONDS.toNanos( 1 ) / activeNanos;
+    }
+
+    /**
+     * Time left at the throughput so far, or -1 while there is nothing to go by.
+     */
+    public synchronized long getEtaMs() {
+        long scannedMs = completedMs + fileMs;
+        if ( state != State.RUNNING && state != State.PAUSED || scannedMs <= 0 || totalMs <= 0 ) {
+            return -1;
+        }
+        long activeMs = TimeUnit.NANOSECONDS.toMillis( getActiveNanos() );
+        return Math.max( 0, Math.round( (double)(totalMs - scannedMs) * activeMs / scannedMs ) );
+    }
+
+    private long getActiveNanos() {
+        if ( startedAt == 0 ) {
+            return 0;
+        }
+        long now = finishedAt != 0 ? finishedAt : nanoTime.getAsLong();
+        long paused = pausedNanos + (state == State.PAUSED ? now - pausedAt : 0);
+        return now - startedAt - paused;
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put( "id", id );
+        result.put( "section", section );
+        result.put( "folder", folder );
+        result.put( "state", state );
+        result.put( "files", totalFiles );
+        result.put( "indexed", doneFiles );
+        result.put( "failed", failedFiles );
+        result.put( "skipped", skippedFiles );
+        result.put( "currentFile", currentFile );
+        result.put( "progress", getProgress() );
+        result.put( "frames", frames );
+        result.put( "framesPerSecond", getFramesPerSecond() );
+        result.put( "etaMs", getEtaMs() );
+        result.put( "error", error );
+        return result;
+    }
+}
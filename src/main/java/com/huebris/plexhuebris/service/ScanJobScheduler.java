@@ -0,0 +1,192 @@
+package com.huebris.plexhuebris.service;
+
+import com.huebris.plexhuebris.index.ColorTrackStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import javax.xml.stream.XMLStreamException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queues scans of whole Plex library sections, or folders within them, that index every file
+ * without a color track yet. Jobs run one at a time on their own thread; each file is split into
+ * segments decoded on {@link MediaScanService}'s pool, which is sized to the cores. With
+ * {@code huebris.scan.pause-while-playing} (the default) a job holds still while any player is
+ * playing so it does not take CPU from the live session, and carries on once playback stops.
+ * Only the last {@code huebris.scan.keep-finished} finished jobs are remembered.
+ */
+@Component
+public class ScanJobScheduler {
+    private static final Logger log = LoggerFactory.getLogger( ScanJobScheduler.class );
+
+    private final MediaScanService mediaScanService;
+    private final SessionTracker sessionTracker;
+    private final ColorTrackStore colorTrackStore;
+    private final String plexUrl;
+    private final String plexToken;
+    private final int timeoutMs;
+    private final boolean pauseWhilePlaying;
+    private final long pausePollMs;
+    private final int keepFinished;
+
+    private final PlexLibraryParser parser = new PlexLibraryParser();
+    private final ExecutorService jobExecutor;
+    private final AtomicLong nextId = new AtomicLong();
+    private final ConcurrentSkipListMap<Long, ScanJob> jobs = new ConcurrentSkipListMap<>();
+
+    public ScanJobScheduler(MediaScanService mediaScanService, SessionTracker sessionTracker, ColorTrackStore colorTrackStore,
+                            @Value("${plex.server}") String plexServer,
+                            @Value("${plex.port}") String plexPort,
+                            @Value("${plex.token}") String plexToken,
+                            @Value("${plex.http.timeout-ms:2000}") int timeoutMs,
+                            @Value("${huebris.scan.pause-while-playing:true}") boolean pauseWhilePlaying,
+                            @Value("${huebris.scan.pause-poll-ms:1000}") long pausePollMs,
+                            @Value("${huebris.scan.keep-finished:20}") int keepFinished) {
+        this.mediaScanService = mediaScanService;
+        this.sessionTracker = sessionTracker;
+        this.colorTrackStore = colorTrackStore;
+        this.plexUrl = plexServer + ":" + plexPort;
+        this.plexToken = plexToken;
+        this.timeoutMs = timeoutMs;
+        this.pauseWhilePlaying = pauseWhilePlaying;
+        this.pausePollMs = pausePollMs;
+        this.keepFinished = Math.max( 0, keepFinished );
+        this.jobExecutor = Executors.newSingleThreadExecutor( r -> {
+            Thread thread = new Thread( r, "scan-jobs" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for ( ScanJob job : jobs.values() ) {
+            job.cancel();
+        }
+        jobExecutor.shutdownNow();
+    }
+
+    /**
+     * Queues a scan of the library section, only of the files below folder unless that is null.
+     * Files already indexed are skipped unless force is set.
+     */
+    public ScanJob submit(long section, String folder, boolean force) {
+        ScanJob job = new ScanJob( nextId.incrementAndGet(), section, folder, force,
+                () -> pauseWhilePlaying && sessionTracker.isAnyPlaying(), pausePollMs );
+        jobs.put( job.getId(), job );
+        jobExecutor.execute( () -> run( job ) );
+        log.info( "Queued scan job " + job.getId() + " for section " + section + (folder == null ? "" : " folder " + folder) );
+        return job;
+    }
+
+    /**
+     * The queued and running jobs and the last finished ones, oldest first.
+     */
+    public List<ScanJob> getJobs() {
+        return new ArrayList<>( jobs.values() );
+    }
+
+    public ScanJob getJob(long id) {
+        return jobs.get( id );
+    }
+
+    /**
+     * Stops the job within a frame, or before it starts; false when there is no such job.
+     */
+    public boolean cancel(long id) {
+        ScanJob job = jobs.get( id );
+        if ( job == null ) {
+            return false;
+        }
+        job.cancel();
+        return true;
+    }
+
+    void run(ScanJob job) {
+        try {
+            if ( job.isCancelled() ) {
+                return;
+            }
+            List<PlexLibraryPart> parts = new ArrayList<>();
+            int skipped = 0;
+            for ( PlexLibraryPart part : listParts( job.getSection() ) ) {
+                if ( job.getFolder() != null && !Paths.get( part.getFile() ).startsWith( Paths.get( job.getFolder() ) ) ) {
+                    continue;
+                }
+                if ( !job.isForce() && colorTrackStore.contains( part.getPartId() ) ) {
+                    skipped++;
+                } else {
+                    parts.add( part );
+                }
+            }
+            job.start( parts, skipped );
+            log.info( "Scan job " + job.getId() + " found " + parts.size() + " files to index, " + skipped + " already indexed" );
+
+            for ( PlexLibraryPart part : parts ) {
+                job.checkpoint();
+                job.beginFile( part );
+                try {
+                    mediaScanService.indexVideo( part.getFile(), part.getPartId(), job );
+                    job.finishFile( true );
+                } catch (IOException | RuntimeException e) {
+                    log.warn( "Scan job " + job.getId() + " could not index " + part.getFile() + ": " + e.getMessage() );
+                    job.finishFile( false );
+                }
+            }
+            job.finish( ScanJob.State.DONE, null );
+            log.info( "Scan job " + job.getId() + " done" );
+        } catch (InterruptedException e) {
+            job.finish( ScanJob.State.CANCELLED, null );
+            log.info( "Scan job " + job.getId() + " cancelled" );
+        } catch (IOException | XMLStreamException | RuntimeException e) {
+            job.finish( ScanJob.State.FAILED, e.getMessage() );
+            log.error( "Scan job " + job.getId() + " failed: " + e.getMessage(), e );
+        } finally {
+            forgetFinishedJobs();
+        }
+    }
+
+    /**
+     * Drops finished jobs beyond the newest {@code keepFinished}, so the job list does not grow
+     * for as long as the server runs.
+     */
+    private void forgetFinishedJobs() {
+        int finished = 0;
+        for ( ScanJob job : jobs.descendingMap().values() ) {
+            if ( job.isFinished() && ++finished > keepFinished ) {
+                jobs.remove( job.getId(), job );
+            }
+        }
+    }
+
+    /**
+     * The video files of the section. Movie sections list their videos directly, show sections
+     * list the shows, so for those the episodes are asked for instead.
+     */
+    protected List<PlexLibraryPart> listParts(long section) throws IOException, XMLStreamException {
+        List<PlexLibraryPart> parts = fetchParts( "/library/sections/" + section + "/all?X-Plex-Token=" + plexToken );
+        return parts.isEmpty() ? fetchParts( "/library/sections/" + section + "/all?type=4&X-Plex-Token=" + plexToken ) : parts;
+    }
+
+    private List<PlexLibraryPart> fetchParts(String path) throws IOException, XMLStreamException {
+        HttpURLConnection conn = (HttpURLConnection) new URL( plexUrl + path ).openConnection();
+        conn.setConnectTimeout( timeoutMs );
+        conn.setReadTimeout( timeoutMs );
+        try ( InputStream in = conn.getInputStream() ) {
+            return parser.parse( in );
+        }
+    }
+}
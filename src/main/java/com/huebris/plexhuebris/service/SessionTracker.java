@@ -0,0 +1,172 @@
+package com.huebris.plexhuebris.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Knows what every Plex player is playing and where, without asking Plex on every frame. Each
+ * player's position comes from its own {@link PlaybackClock}, anchored by the play/pause webhooks
+ * and by a slow background poll of {@code /status/sessions}, which also corrects whatever drift
+ * builds up and forgets players that stopped.
+ */
+@Component
+public class SessionTracker {
+    private static final Logger log = LoggerFactory.getLogger( SessionTracker.class );
+
+    private final String plexUrl;
+    private final String plexToken;
+    private final int timeoutMs;
+    private final long resyncMs;
+    private final long driftToleranceMs;
+
+    private final Map<String, PlaybackClock> clocks = new ConcurrentHashMap<>();
+    private final Map<String, String> playerTitles = new ConcurrentHashMap<>();
+    private final PlexSessionsParser parser = new PlexSessionsParser();
+    private ScheduledExecutorService pollExecutor;
+
+    private final CircuitBreaker breaker;
+
+    private final Timer pollTimer;
+    private final Counter failedCounter;
+
+    public SessionTracker(MeterRegistry meterRegistry, CircuitBreakers circuitBreakers,
+                          @Value("${plex.server}") String plexServer,
+                          @Value("${plex.port}") String plexPort,
+                          @Value("${plex.token}") String plexToken,
+                          @Value("${plex.http.timeout-ms:2000}") int timeoutMs,
+                          @Value("${plex.sessions.resync-ms:10000}") long resyncMs,
+                          @Value("${plex.sessions.drift-tolerance-ms:1500}") long driftToleranceMs) {
+        this.plexUrl = plexServer + ":" + plexPort;
+        this.plexToken = plexToken;
+        this.timeoutMs = timeoutMs;
+        this.breaker = circuitBreakers.forEndpoint( CircuitBreakers.PLEX_SESSIONS );
+        this.resyncMs = Math.max( 1000, resyncMs );
+        this.driftToleranceMs = driftToleranceMs;
+        this.pollTimer = meterRegistry.timer( "plex.sessions.poll" );
+        this.failedCounter = meterRegistry.counter( "plex.requests.failed", "request", "sessions" );
+    }
+
+    @PostConstruct
+    public void start() {
+        pollExecutor = Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread thread = new Thread( r, "plex-session-tracker" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        pollExecutor.scheduleWithFixedDelay( this::resync, 0, resyncMs, TimeUnit.MILLISECONDS );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pollExecutor.shutdownNow();
+    }
+
+    /**
+     * A play or resume webhook arrived for the player; the offset is negative when the payload did
+     * not carry one. The clock starts right away and a poll is queued to pick up the part and exact position.
+     */
+    public void onPlay(String player, long offsetMs) {
+        clocks.computeIfAbsent( player, p -> newClock() ).play( offsetMs );
+        pollExecutor.execute( this::resync );
+    }
+
+    public void onPause(String player, long offsetMs) {
+        PlaybackClock clock = clocks.get( player );
+        if ( clock != null ) {
+            clock.pause( offsetMs );
+        }
+    }
+
+    public void onStop(String player) {
+        clocks.remove( player );
+    }
+
+    public Set<String> getPlayers() {
+        return clocks.keySet();
+    }
+
+    public boolean isAnyPlaying() {
+        for ( PlaybackClock clock : clocks.values() ) {
+            if ( clock.isPlaying() ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The player's clock, or null once the player has stopped.
+     */
+    public PlaybackClock getClock(String player) {
+        return clocks.get( player );
+    }
+
+    public String getPlayerTitle(String player) {
+        return playerTitles.get( player );
+    }
+
+    void resync() {
+        if ( !breaker.tryAcquire() ) {
+            log.debug( "Plex sessions circuit is open, skipping poll" );
+            return;
+        }
+        long started = System.nanoTime();
+        try {
+            List<PlexSession> sessions;
+            HttpURLConnection conn = (HttpURLConnection) new URL( plexUrl + "/status/sessions?X-Plex-Token=" + plexToken ).openConnection();
+            conn.setConnectTimeout( timeoutMs );
+            conn.setReadTimeout( timeoutMs );
+            try ( InputStream in = conn.getInputStream() ) {
+                sessions = parser.parse( in );
+            }
+            breaker.onSuccess();
+            update( sessions );
+            log.debug( "Retrieved Video Information (" + sessions.size() + " sessions)" );
+        } catch (Exception e) {
+            breaker.onFailure();
+            failedCounter.increment();
+            log.error(e.getMessage(), e);
+        } finally {
+            pollTimer.record( System.nanoTime() - started, TimeUnit.NANOSECONDS );
+        }
+    }
+
+    void update(List<PlexSession> sessions) {
+        Set<String> players = new HashSet<>();
+        for ( PlexSession session : sessions ) {
+            players.add( session.getPlayer() );
+            if ( session.getPlayerTitle() != null ) {
+                playerTitles.put( session.getPlayer(), session.getPlayerTitle() );
+            }
+            clocks.computeIfAbsent( session.getPlayer(), p -> newClock() )
+                    .anchor( session.getPartId(), session.getViewOffsetMs(), session.isPlaying() );
+        }
+        // A player only announced by a webhook has no part yet; give Plex one resync to list it.
+        clocks.entrySet().removeIf( entry -> !players.contains( entry.getKey() )
+                && (entry.getValue().getPartId() > 0 || entry.getValue().getIdleMs() >= resyncMs) );
+        playerTitles.keySet().retainAll( players );
+    }
+
+    protected PlaybackClock newClock() {
+        return new PlaybackClock( driftToleranceMs );
+    }
+}
@@ -0,0 +1,161 @@
+package com.huebris.plexhuebris.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes thumbnails at no more than the resolution the color analysis needs. The JPEG is
+ * subsampled while it is decoded, to about {@code plex.thumbnail.decode-width} pixels across,
+ * into an image taken from a pool of up to {@code plex.thumbnail.pool-size} that
+ * {@link #release(BufferedImage)} refills. Each thread keeps its own JPEG reader and download
+ * buffer, so a steady stream of thumbnails allocates next to nothing.
+ */
+@Component
+public class ThumbnailDecoder {
+
+    private final int decodeWidth;
+    private final int poolSize;
+
+    private final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial( Workspace::new );
+    private final Deque<BufferedImage> pool = new ArrayDeque<>();
+
+    private final AtomicLong allocated = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+
+    public ThumbnailDecoder(@Value("${plex.thumbnail.decode-width:160}") int decodeWidth,
+                            @Value("${plex.thumbnail.pool-size:16}") int poolSize) {
+        this.decodeWidth = Math.max( 1, decodeWidth );
+        this.poolSize = Math.max( 0, poolSize );
+    }
+
+    /**
+     * Reads the whole stream into this thread's buffer, to be decoded by {@link #decode(int)}.
+     *
+     * @return the number of bytes read
+     */
+    public int download(InputStream in, int expectedLength) throws IOException {
+        Workspace workspace = workspaces.get();
+        workspace.ensureCapacity( expectedLength );
+        int length = 0;
+        int read;
+        while ( (read = in.read( workspace.buffer, length, workspace.buffer.length - length )) >= 0 ) {
+            length += read;
+            if ( length == workspace.buffer.length ) {
+                workspace.ensureCapacity( length * 2 );
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Decodes the first length bytes of this thread's buffer; null when no reader understands them.
+     */
+    public BufferedImage decode(int length) throws IOException {
+        Workspace workspace = workspaces.get();
+        byte[] data = workspace.buffer;
+        if ( length < 2 || (data[0] & 0xff) != 0xff || (data[1] & 0xff) != 0xd8 ) {
+            // Not a JPEG; let ImageIO find a reader for it.
+            return ImageIO.read( new ByteArrayInputStream( data, 0, length ) );
+        }
+        ImageReader reader = workspace.reader();
+        try ( ImageInputStream in = new MemoryCacheImageInputStream( new ByteArrayInputStream( data, 0, length ) ) ) {
+            reader.setInput( in, true, true );
+            int width = reader.getWidth( 0 );
+            int height = reader.getHeight( 0 );
+            int factor = Math.max( 1, width / decodeWidth );
+            ImageTypeSpecifier type = reader.getImageTypes( 0 ).next();
+            BufferedImage destination = acquire( (width + factor - 1) / factor, (height + factor - 1) / factor, type );
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling( factor, factor, 0, 0 );
+            param.setDestination( destination );
+            try {
+                return reader.read( 0, param );
+            } catch (IOException | RuntimeException e) {
+                release( destination );
+                throw e;
+            }
+        } finally {
+            reader.setInput( null );
+        }
+    }
+
+    /**
+     * Hands an image back for a later decode; nobody may read it any more.
+     */
+    public void release(BufferedImage image) {
+        if ( image == null ) {
+            return;
+        }
+        synchronized (pool) {
+            if ( pool.size() < poolSize ) {
+                pool.push( image );
+            }
+        }
+    }
+
+    public long getAllocatedCount() {
+        return allocated.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    private BufferedImage acquire(int width, int height, ImageTypeSpecifier type) {
+        int imageType = type.getBufferedImageType();
+        if ( imageType != BufferedImage.TYPE_CUSTOM ) {
+            synchronized (pool) {
+                Iterator<BufferedImage> iterator = pool.iterator();
+                while ( iterator.hasNext() ) {
+                    BufferedImage image = iterator.next();
+                    if ( image.getWidth() == width && image.getHeight() == height && image.getType() == imageType ) {
+                        iterator.remove();
+                        reused.incrementAndGet();
+                        return image;
+                    }
+                }
+            }
+        }
+        allocated.incrementAndGet();
+        return type.createBufferedImage( width, height );
+    }
+
+    private static class Workspace {
+        private byte[] buffer = new byte[64 * 1024];
+        private ImageReader reader;
+
+        private void ensureCapacity(int capacity) {
+            if ( capacity > buffer.length ) {
+                buffer = Arrays.copyOf( buffer, capacity );
+            }
+        }
+
+        private ImageReader reader() throws IOException {
+            if ( reader == null ) {
+                Iterator<ImageReader> readers = ImageIO.getImageReadersByFormatName( "jpeg" );
+                if ( !readers.hasNext() ) {
+                    throw new IOException( "No JPEG reader available" );
+                }
+                reader = readers.next();
+            }
+            return reader;
+        }
+    }
+}
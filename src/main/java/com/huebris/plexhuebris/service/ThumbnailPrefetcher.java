@@ -0,0 +1,374 @@
+package com.huebris.plexhuebris.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongPredicate;
+
+/**
+ * Fetches Plex thumbnails ahead of the playback position so the render loop never waits on the
+ * transcoder. The upcoming offsets, rounded down to the sampling interval, are requested concurrently
+ * into a ring of {@code plex.prefetch.depth} slots keyed by offset; a slot is reused as soon as
+ * playback has passed its offset. Every player gets its own ring, all sharing one fetch pool.
+ * <p>
+ * Each thumbnail has a deadline, the moment playback moves past its offset: requests still queued
+ * then are skipped, connect and read timeouts are cut to what is left of it, and an image arriving
+ * after it is dropped instead of being shown late. With {@code plex.prefetch.hedge-ms} set, a second
+ * request goes out for a thumbnail still missing after that long and whichever answers first wins.
+ * Requests are not sent at all while the transcoder's circuit breaker is open.
+ * <p>
+ * Plex is asked for {@code plex.thumbnail.width} x {@code plex.thumbnail.height} images, which the
+ * {@link ThumbnailDecoder} shrinks further while decoding. Images of slots playback has passed go
+ * back to its pool.
+ */
+@Component
+public class ThumbnailPrefetcher {
+    private static final Logger log = LoggerFactory.getLogger( ThumbnailPrefetcher.class );
+
+    private final String plexUrl;
+    private final String plexToken;
+    private final long intervalMs;
+    private final int depth;
+    private final int timeoutMs;
+    private final int thumbnailWidth;
+    private final int thumbnailHeight;
+    private final ThumbnailDecoder decoder;
+    private final long hedgeMs;
+    private final ExecutorService fetchExecutor;
+    private final ScheduledExecutorService hedgeExecutor;
+    private final CircuitBreaker breaker;
+
+    private final Map<String, Ring> rings = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong fetched = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong expired = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong hedged = new AtomicLong();
+
+    private final Timer fetchTimer;
+    private final Timer decodeTimer;
+    private final Counter failedCounter;
+    private final Counter timedOutCounter;
+
+    public ThumbnailPrefetcher(MeterRegistry meterRegistry, CircuitBreakers circuitBreakers, ThumbnailDecoder decoder,
+                               @Value("${plex.server}") String plexServer,
+                               @Value("${plex.port}") String plexPort,
+                               @Value("${plex.token}") String plexToken,
+                               @Value("${plex.prefetch.interval-ms:2000}") long intervalMs,
+                               @Value("${plex.prefetch.depth:4}") int depth,
+                               @Value("${plex.prefetch.threads:4}") int threads,
+                               @Value("${plex.http.timeout-ms:2000}") int timeoutMs,
+                               @Value("${plex.prefetch.hedge-ms:0}") long hedgeMs,
+                               @Value("${plex.thumbnail.width:320}") int thumbnailWidth,
+                               @Value("${plex.thumbnail.height:180}") int thumbnailHeight) {
+        this.plexUrl = plexServer + ":" + plexPort;
+        this.plexToken = plexToken;
+        this.intervalMs = Math.max( 1, intervalMs );
+        this.depth = Math.max( 1, depth );
+        this.timeoutMs = Math.max( 1, timeoutMs );
+        this.hedgeMs = hedgeMs;
+        this.decoder = decoder;
+        this.thumbnailWidth = thumbnailWidth;
+        this.thumbnailHeight = thumbnailHeight;
+        this.breaker = circuitBreakers.forEndpoint( CircuitBreakers.PLEX_THUMBNAIL );
+        this.fetchTimer = meterRegistry.timer( "plex.thumbnail.fetch" );
+        this.decodeTimer = meterRegistry.timer( "plex.thumbnail.decode" );
+        this.failedCounter = meterRegistry.counter( "plex.requests.failed", "request", "thumbnail" );
+        this.timedOutCounter = meterRegistry.counter( "plex.requests.timeout", "request", "thumbnail" );
+        this.fetchExecutor = Executors.newFixedThreadPool( Math.max( 1, threads ), r -> {
+            Thread thread = new Thread( r, "thumbnail-prefetcher" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+        this.hedgeExecutor = hedgeMs <= 0 ? null : Executors.newSingleThreadScheduledExecutor( r -> {
+            Thread thread = new Thread( r, "thumbnail-hedger" );
+            thread.setDaemon( true );
+            return thread;
+        } );
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        fetchExecutor.shutdownNow();
+        if ( hedgeExecutor != null ) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * Moves the player's window to start at the given offset of the media part: slots behind it are
+     * evicted and every offset inside it that is not already requested gets fetched.
+     */
+    public void advance(String player, long partId, long offsetMs) {
+        advance( player, partId, offsetMs, bucket -> false );
+    }
+
+    /**
+     * Like {@link #advance(String, long, long)}, but skips the offsets whose colors are already
+     * known, e.g. from the color cache.
+     */
+    public void advance(String player, long partId, long offsetMs, LongPredicate known) {
+        rings.computeIfAbsent( player, p -> new Ring( depth ) ).advance( partId, offsetMs, known );
+    }
+
+    /**
+     * The player's thumbnail for the offset if it has already arrived, otherwise null. Never blocks.
+     */
+    public BufferedImage get(String player, long partId, long offsetMs) {
+        Ring ring = rings.get( player );
+        BufferedImage image = ring == null ? null : ring.get( partId, offsetMs );
+        if ( image == null ) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return image;
+    }
+
+    /**
+     * Drops the player's ring, e.g. when it stops or seeks somewhere else.
+     */
+    public void clear(String player) {
+        Ring ring = rings.remove( player );
+        if ( ring != null ) {
+            ring.clear();
+        }
+    }
+
+    public void clear() {
+        for ( String player : rings.keySet() ) {
+            clear( player );
+        }
+    }
+
+    public double getHitRate() {
+        long total = hits.get() + misses.get();
+        return total == 0 ? 0 : (double)hits.get() / total;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put( "hits", hits.get() );
+        result.put( "misses", misses.get() );
+        result.put( "hitRate", getHitRate() );
+        result.put( "fetched", fetched.get() );
+        result.put( "failed", failed.get() );
+        result.put( "expired", expired.get() );
+        result.put( "rejected", rejected.get() );
+        result.put( "hedged", hedged.get() );
+        result.put( "players", rings.size() );
+        result.put( "depth", depth );
+        result.put( "intervalMs", intervalMs );
+        result.put( "timeoutMs", timeoutMs );
+        result.put( "hedgeMs", hedgeMs );
+        result.put( "imagesAllocated", decoder.getAllocatedCount() );
+        result.put( "imagesReused", decoder.getReusedCount() );
+        return result;
+    }
+
+    /**
+     * Downloads and decodes the thumbnail, giving up on connecting or reading after timeoutMs.
+     */
+    protected BufferedImage fetch(long partId, long offsetMs, int timeoutMs) throws IOException {
+        String imageTranscode = "/library/parts/" + partId + "/indexes/sd/" + offsetMs + "?X-Plex-Token=" + plexToken;
+        URL url = new URL(plexUrl + "/photo/:/transcode?X-Plex-Token=" + plexToken + "&width=" + thumbnailWidth + "&height=" + thumbnailHeight
+                + "&minSize=1&url=" + URLEncoder.encode( imageTranscode, "UTF-8"));
+
+        // Download and decode separately so each shows up in its own timer.
+        long started = System.nanoTime();
+        int length;
+        HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+        conn.setConnectTimeout( timeoutMs );
+        conn.setReadTimeout( timeoutMs );
+        try ( InputStream in = conn.getInputStream() ) {
+            length = decoder.download( in, conn.getContentLength() );
+        }
+        long downloaded = System.nanoTime();
+        fetchTimer.record( downloaded - started, TimeUnit.NANOSECONDS );
+
+        BufferedImage image = decoder.decode( length );
+        decodeTimer.record( System.nanoTime() - downloaded, TimeUnit.NANOSECONDS );
+        return image;
+    }
+
+    /**
+     * Starts fetching the thumbnail, hedged if configured. The future completes with null once
+     * every attempt failed or missed the deadline, a {@link System#nanoTime()} value.
+     */
+    private CompletableFuture<BufferedImage> request(long partId, long offsetMs, long deadline) {
+        CompletableFuture<BufferedImage> image = new CompletableFuture<>();
+        AtomicInteger attempts = new AtomicInteger( 1 );
+        attempt( image, attempts, partId, offsetMs, deadline );
+        if ( hedgeExecutor != null ) {
+            hedgeExecutor.schedule( () -> {
+                if ( !image.isDone() && System.nanoTime() < deadline ) {
+                    attempts.incrementAndGet();
+                    hedged.incrementAndGet();
+                    attempt( image, attempts, partId, offsetMs, deadline );
+                }
+            }, hedgeMs, TimeUnit.MILLISECONDS );
+        }
+        return image;
+    }
+
+    private void attempt(CompletableFuture<BufferedImage> image, AtomicInteger attempts, long partId, long offsetMs, long deadline) {
+        fetchExecutor.execute( () -> {
+            // Evicted, or the other attempt already delivered.
+            BufferedImage result = image.isDone() ? null : fetchBefore( partId, offsetMs, deadline );
+            if ( result != null ) {
+                if ( !image.complete( result ) ) {
+                    // Lost to the other attempt, or evicted while it was on its way.
+                    decoder.release( result );
+                }
+            } else if ( attempts.decrementAndGet() == 0 ) {
+                image.complete( null );
+            }
+        } );
+    }
+
+    private BufferedImage fetchBefore(long partId, long offsetMs, long deadline) {
+        long remainingMs = TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() );
+        if ( remainingMs <= 0 ) {
+            expired.incrementAndGet();
+            return null;
+        }
+        if ( !breaker.tryAcquire() ) {
+            rejected.incrementAndGet();
+            return null;
+        }
+        try {
+            BufferedImage image = fetch( partId, offsetMs, (int)Math.min( timeoutMs, remainingMs ) );
+            breaker.onSuccess();
+            if ( System.nanoTime() - deadline > 0 ) {
+                // Playback has moved on; showing it now would be wrong.
+                expired.incrementAndGet();
+                return null;
+            }
+            if ( image == null ) {
+                failed.incrementAndGet();
+                failedCounter.increment();
+            } else {
+                fetched.incrementAndGet();
+            }
+            return image;
+        } catch (InterruptedIOException e) {
+            breaker.onFailure();
+            failed.incrementAndGet();
+            timedOutCounter.increment();
+            log.warn( "Thumbnail " + offsetMs + " of part " + partId + " timed out" );
+            return null;
+        } catch (IOException | RuntimeException e) {
+            // Whatever went wrong, the breaker must hear about it or a trial call never ends.
+            breaker.onFailure();
+            failed.incrementAndGet();
+            failedCounter.increment();
+            log.error( e.getMessage(), e );
+            return null;
+        }
+    }
+
+    private long bucket(long offsetMs) {
+        return Math.max( 0, offsetMs ) / intervalMs * intervalMs;
+    }
+
+    private class Ring {
+        private final Slot[] slots;
+        private long partId;
+
+        private Ring(int depth) {
+            this.slots = new Slot[depth];
+        }
+
+        private synchronized void advance(long partId, long offsetMs, LongPredicate known) {
+            if ( partId != this.partId ) {
+                clear();
+                this.partId = partId;
+            }
+            long first = bucket( offsetMs );
+            long now = System.nanoTime();
+            for ( int i = 0; i < slots.length; i++ ) {
+                long bucket = first + i * intervalMs;
+                int index = index( bucket );
+                Slot slot = slots[index];
+                if ( slot != null && slot.offsetMs == bucket || known.test( bucket ) ) {
+                    continue;
+                }
+                if ( slot != null ) {
+                    recycle( slot );
+                }
+                // Needed until playback, now at offsetMs, moves past the end of the bucket.
+                long deadline = now + TimeUnit.MILLISECONDS.toNanos( bucket + intervalMs - offsetMs );
+                slots[index] = new Slot( bucket, request( partId, bucket, deadline ) );
+            }
+        }
+
+        private synchronized BufferedImage get(long partId, long offsetMs) {
+            long bucket = bucket( offsetMs );
+            Slot slot = slots[index( bucket )];
+            return partId == this.partId && slot != null && slot.offsetMs == bucket ? slot.image.getNow( null ) : null;
+        }
+
+        /**
+         * Empties the ring, handing every image that already arrived back to the decoder.
+         */
+        private synchronized void clear() {
+            for ( int i = 0; i < slots.length; i++ ) {
+                if ( slots[i] != null ) {
+                    recycle( slots[i] );
+                    slots[i] = null;
+                }
+            }
+        }
+
+        /**
+         * Gives the image of a slot playback has passed back to the decoder. Only the room's own
+         * thread advances its ring, and it is done with the image by then. A slot still being
+         * fetched is cancelled and its attempt releases the image once it lands.
+         */
+        private void recycle(Slot slot) {
+            if ( !slot.image.cancel( false ) && !slot.image.isCompletedExceptionally() ) {
+                decoder.release( slot.image.getNow( null ) );
+            }
+        }
+
+        private int index(long bucket) {
+            return (int)((bucket / intervalMs) % slots.length);
+        }
+    }
+
+    private static class Slot {
+        private final long offsetMs;
+        private final CompletableFuture<BufferedImage> image;
+
+        private Slot(long offsetMs, CompletableFuture<BufferedImage> image) {
+            this.offsetMs = offsetMs;
+            this.image = image;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.huebris.plexhuebris.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Classic token bucket: refills continuously at a fixed rate up to a maximum burst.
+ */
+public class TokenBucket {
+
+    private final double permitsPerSecond;
+    private final double capacity;
+
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(double permitsPerSecond, int capacity) {
+        if ( permitsPerSecond <= 0 || capacity <= 0 ) {
+            throw new IllegalArgumentException( "Rate and capacity must be positive" );
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    public synchronized boolean tryAcquire(int permits) {
+        refill();
+        if ( tokens >= permits ) {
+            tokens -= permits;
+            return true;
+        }
+        return false;
+    }
+
+    public void acquire(int permits) throws InterruptedException {
+        if ( permits > capacity ) {
+            throw new IllegalArgumentException( "Cannot acquire more permits than the bucket holds" );
+        }
+        while ( true ) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if ( tokens >= permits ) {
+                    tokens -= permits;
+                    return;
+                }
+                waitNanos = (long)((permits - tokens) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+            }
+            TimeUnit.NANOSECONDS.sleep( Math.max( waitNanos, 1 ) );
+        }
+    }
+
+    /**
+     * Hands back permits that were acquired but not used, up to the capacity.
+     */
+    public synchronized void release(int permits) {
+        refill();
+        tokens = Math.min( capacity, tokens + permits );
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min( capacity, tokens + (now - lastRefillNanos) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1) );
+        lastRefillNanos = now;
+    }
+}
@@ -0,0 +1,93 @@
+package com.huebris.plexhuebris.color;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertEquals;
+
+public class ColorAnalyzerTest {
+
+    private final ColorAnalyzer analyzer = new ColorAnalyzer( 1 );
+
+    @Test
+    public void readsEveryCommonRasterLayout() {
+        int[] types = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_BGR,
+                BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR };
+        for ( int type : types ) {
+            BufferedImage image = new BufferedImage( 40, 20, type );
+            fill( image, 0, 0, 40, 20, new Color( 200, 100, 0 ) );
+            fill( image, 0, 0, 10, 20, new Color( 0, 0, 248 ) );
+
+            ColorAnalysis analysis = analyzer.analyze( image );
+
+            assertEquals( "type " + type, new Color( 150, 75, 62 ), analysis.getAverage() );
+            assertEquals( "type " + type, new Color( 200, 100, 0 ), analysis.getMode() );
+            assertEquals( "type " + type, new Color( 200, 100, 0 ), analysis.getDominant() );
+            assertEquals( "type " + type, 0.75, analysis.getDominantWeight(), 1e-9 );
+        }
+    }
+
+    @Test
+    public void grayImagesReportGray() {
+        BufferedImage image = new BufferedImage( 8, 8, BufferedImage.TYPE_BYTE_GRAY );
+        fill( image, 0, 0, 8, 8, new Color( 90, 90, 90 ) );
+
+        ColorAnalysis analysis = analyzer.analyze( image );
+
+        Color average = analysis.getAverage();
+        assertEquals( average.getRed(), average.getGreen() );
+        assertEquals( average.getGreen(), average.getBlue() );
+    }
+
+    @Test
+    public void readsPaletteImagesThroughTheirPalette() {
+        BufferedImage image = new BufferedImage( 8, 8, BufferedImage.TYPE_BYTE_INDEXED );
+        // Pure red is in the default palette, at an index that is no gray level or channel value of red.
+        fill( image, 0, 0, 8, 8, Color.RED );
+
+        ColorAnalysis analysis = analyzer.analyze( image );
+
+        assertEquals( Color.RED, analysis.getAverage() );
+        assertEquals( Color.RED, analysis.getDominant() );
+    }
+
+    @Test
+    public void modeCountsEachChannelSeparately() {
+        BufferedImage image = new BufferedImage( 3, 1, BufferedImage.TYPE_3BYTE_BGR );
+        image.setRGB( 0, 0, new Color( 10, 20, 30 ).getRGB() );
+        image.setRGB( 1, 0, new Color( 10, 50, 60 ).getRGB() );
+        image.setRGB( 2, 0, new Color( 70, 50, 30 ).getRGB() );
+
+        assertEquals( new Color( 10, 50, 30 ), analyzer.analyze( image ).getMode() );
+    }
+
+    @Test
+    public void analyzesOnlyTheRequestedRegionOfASubimage() {
+        BufferedImage image = new BufferedImage( 100, 50, BufferedImage.TYPE_3BYTE_BGR );
+        fill( image, 0, 0, 100, 50, Color.RED );
+        fill( image, 60, 10, 20, 20, Color.GREEN );
+        BufferedImage sub = image.getSubimage( 50, 5, 40, 30 );
+
+        assertEquals( Color.GREEN, analyzer.analyze( sub, 10, 5, 20, 20 ).getAverage() );
+    }
+
+    @Test
+    public void strideSamplesASubsetOfPixels() {
+        BufferedImage image = new BufferedImage( 64, 64, BufferedImage.TYPE_INT_RGB );
+        fill( image, 0, 0, 64, 64, Color.WHITE );
+
+        ColorAnalysis analysis = analyzer.analyze( image, 0, 0, 64, 64, 4 );
+
+        assertEquals( 16 * 16, analysis.getSampleCount() );
+        assertEquals( Color.WHITE, analysis.getAverage() );
+    }
+
+    private void fill(BufferedImage image, int x, int y, int w, int h, Color color) {
+        Graphics2D g = image.createGraphics();
+        g.setColor( color );
+        g.fillRect( x, y, w, h );
+        g.dispose();
+    }
+}
@@ -0,0 +1,96 @@
+package com.huebris.plexhuebris.color;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColorHistogramTest {
+
+    @Test
+    public void findsAColorThatActuallyOccursInTheFrame() {
+        // Per-channel argmax over these two blocks would invent (200, 200, 0), which appears nowhere.
+        BufferedImage image = new BufferedImage( 100, 100, BufferedImage.TYPE_3BYTE_BGR );
+        fill( image, 0, 0, 100, 100, new Color( 200, 0, 0 ) );
+        fill( image, 0, 0, 100, 30, new Color( 0, 200, 0 ) );
+        fill( image, 0, 30, 100, 25, new Color( 200, 200, 200 ) );
+
+        DominantColor dominant = new ColorHistogram( 1, 4 ).dominantColor( image );
+
+        assertEquals( new Color( 200, 0, 0 ), dominant.getColor() );
+        assertEquals( 0.45, dominant.getWeight(), 1e-9 );
+    }
+
+    @Test
+    public void groupsNearbyShadesIntoOneCluster() {
+        BufferedImage image = new BufferedImage( 200, 120, BufferedImage.TYPE_INT_RGB );
+        Random random = new Random( 42 );
+        for ( int y = 0; y < 120; y++ ) {
+            for ( int x = 0; x < 200; x++ ) {
+                // 60% noisy blue spread over several cube cells, 40% flat orange in a single cell.
+                Color color = x < 120
+                        ? new Color( 20 + random.nextInt( 24 ), 40 + random.nextInt( 24 ), 180 + random.nextInt( 24 ) )
+                        : new Color( 250, 140, 10 );
+                image.setRGB( x, y, color.getRGB() );
+            }
+        }
+
+        DominantColor dominant = new ColorHistogram( 1, 8 ).dominantColor( image );
+
+        assertTrue( dominant.toString(), dominant.getColor().getBlue() > 170 );
+        assertTrue( dominant.toString(), dominant.getWeight() > 0.5 );
+    }
+
+    @Test
+    public void bandedResultMatchesSingleBand() {
+        BufferedImage image = new BufferedImage( 320, 180, BufferedImage.TYPE_INT_RGB );
+        Random random = new Random( 7 );
+        for ( int y = 0; y < 180; y++ ) {
+            for ( int x = 0; x < 320; x++ ) {
+                image.setRGB( x, y, random.nextInt( 0x1000000 ) & 0xf0f0f0 );
+            }
+        }
+
+        DominantColor single = new ColorHistogram( 2, 1 ).dominantColor( image );
+        DominantColor banded = new ColorHistogram( 2, 6 ).dominantColor( image );
+
+        assertEquals( single.getColor(), banded.getColor() );
+        assertEquals( single.getWeight(), banded.getWeight(), 1e-12 );
+    }
+
+    @Test
+    public void computesEveryZoneInOnePass() {
+        BufferedImage image = new BufferedImage( 160, 90, BufferedImage.TYPE_3BYTE_BGR );
+        fill( image, 0, 0, 160, 90, Color.GRAY );
+        fill( image, 0, 0, 40, 90, Color.RED );
+        fill( image, 120, 0, 40, 90, Color.BLUE );
+        fill( image, 0, 0, 160, 20, Color.GREEN );
+
+        Map<String, Rectangle> regions = new LinkedHashMap<>();
+        regions.put( "left", ScreenZone.parse( "left" ).toRectangle( 160, 90 ) );
+        regions.put( "right", ScreenZone.parse( "right" ).toRectangle( 160, 90 ) );
+        regions.put( "top", ScreenZone.parse( "0,0,1,0.2" ).toRectangle( 160, 90 ) );
+        regions.put( "center", ScreenZone.parse( "center" ).toRectangle( 160, 90 ) );
+
+        Map<String, DominantColor> colors = new ColorHistogram( 3, 4 ).dominantColors( image, regions );
+
+        assertEquals( Color.RED, colors.get( "left" ).getColor() );
+        assertEquals( Color.BLUE, colors.get( "right" ).getColor() );
+        assertEquals( Color.GREEN, colors.get( "top" ).getColor() );
+        assertEquals( 1.0, colors.get( "top" ).getWeight(), 1e-9 );
+        assertEquals( Color.GRAY, colors.get( "center" ).getColor() );
+    }
+
+    private void fill(BufferedImage image, int x, int y, int w, int h, Color color) {
+        Graphics2D g = image.createGraphics();
+        g.setColor( color );
+        g.fillRect( x, y, w, h );
+        g.dispose();
+    }
+}
@@ -0,0 +1,47 @@
+package com.huebris.plexhuebris.color;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LabSmootherTest {
+
+    @Test
+    public void convertsToLabAndBack() {
+        for ( Color color : new Color[] { Color.BLACK, Color.WHITE, Color.RED, new Color( 12, 200, 77 ), new Color( 90, 40, 250 ) } ) {
+            assertEquals( color, LabColor.toColor( LabColor.fromColor( color ) ) );
+        }
+        double[] white = LabColor.fromColor( Color.WHITE );
+        assertEquals( 100, white[0], 0.01 );
+        assertEquals( 0, white[1], 0.01 );
+        assertEquals( 0, white[2], 0.01 );
+    }
+
+    @Test
+    public void blendsSmallChangesTowardsTheTarget() {
+        LabSmoother smoother = new LabSmoother( 0.5, 40 );
+        Color from = new Color( 100, 100, 100 );
+        Color to = new Color( 120, 110, 100 );
+        assertEquals( from, smoother.apply( Collections.singletonMap( 6, from ) ).get( 6 ) );
+
+        Color smoothed = smoother.apply( Collections.singletonMap( 6, to ) ).get( 6 );
+        double[] lab = LabColor.fromColor( smoothed );
+        double toFrom = LabColor.deltaE( lab, LabColor.fromColor( from ) );
+        double toTarget = LabColor.deltaE( lab, LabColor.fromColor( to ) );
+        assertEquals( toFrom, toTarget, 1.0 );
+        assertTrue( toFrom > 0 );
+    }
+
+    @Test
+    public void jumpsOnASceneCut() {
+        LabSmoother smoother = new LabSmoother( 0.5, 40 );
+        smoother.apply( Collections.singletonMap( 6, Color.BLUE ) );
+        Map<Integer, Color> colors = smoother.apply( Collections.singletonMap( 6, Color.YELLOW ) );
+        assertEquals( Color.YELLOW, colors.get( 6 ) );
+    }
+}
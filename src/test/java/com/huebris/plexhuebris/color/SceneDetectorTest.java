@@ -0,0 +1,53 @@
+package com.huebris.plexhuebris.color;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SceneDetectorTest {
+
+    @Test
+    public void signatureSeesCutsButNotNoise() {
+        FrameSignature shot = FrameSignature.of( RasterPixels.rows( frame( new Color( 40, 60, 90 ), Color.ORANGE ) ) );
+        FrameSignature sameShot = FrameSignature.of( RasterPixels.rows( frame( new Color( 42, 61, 88 ), Color.ORANGE ) ) );
+        FrameSignature cut = FrameSignature.of( RasterPixels.rows( frame( Color.ORANGE, new Color( 40, 60, 90 ) ) ) );
+
+        assertEquals( 0, shot.distance( shot ), 0 );
+        assertTrue( shot.distance( sameShot ) < 3 );
+        assertTrue( shot.distance( cut ) > 50 );
+    }
+
+    @Test
+    public void takesChangesWithinTheRateBounds() {
+        SceneDetector detector = new SceneDetector( 100, 2000, 10 );
+        assertTrue( detector.take( 0, Double.POSITIVE_INFINITY ) );
+
+        assertTrue( detector.isTooSoon( 50 ) );
+        assertFalse( detector.take( 50, 80 ) );
+        assertFalse( detector.take( 500, 3 ) );
+        assertTrue( detector.take( 600, 80 ) );
+        // Static picture, but the maximum interval is up.
+        assertTrue( detector.take( 2600, 0 ) );
+        // Seeking back always starts over.
+        assertTrue( detector.take( 1000, 0 ) );
+
+        assertEquals( 4, detector.getTakenCount() );
+        assertEquals( 2, detector.getSkippedCount() );
+    }
+
+    private static BufferedImage frame(Color left, Color right) {
+        BufferedImage image = new BufferedImage( 64, 36, BufferedImage.TYPE_INT_RGB );
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor( left );
+        graphics.fillRect( 0, 0, 32, 36 );
+        graphics.setColor( right );
+        graphics.fillRect( 32, 0, 32, 36 );
+        graphics.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,69 @@
+package com.huebris.plexhuebris.color;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class YuvPlanesTest {
+
+    @Test
+    public void convertsVideoAndFullRange() {
+        assertEquals( 0x000000, YuvPlanes.videoRangeToRgb( 16, 0, 0 ) );
+        assertEquals( 0xffffff, YuvPlanes.videoRangeToRgb( 235, 0, 0 ) );
+        assertEquals( 0x000000, YuvPlanes.fullRangeToRgb( 0, 0, 0 ) );
+        assertEquals( 0xffffff, YuvPlanes.fullRangeToRgb( 255, 0, 0 ) );
+        assertClose( Color.RED, new Color( YuvPlanes.videoRangeToRgb( 81, 90 - 128, 240 - 128 ) ) );
+        assertClose( Color.BLUE, new Color( YuvPlanes.videoRangeToRgb( 41, 240 - 128, 110 - 128 ) ) );
+    }
+
+    @Test
+    public void readsStridedRowsWithSharedChroma() {
+        // 4x2 frame, left half red and right half blue, rows padded to a stride of 6.
+        byte[] luma = bytes( 81, 81, 41, 41, 0, 0, 81, 81, 41, 41, 0, 0 );
+        byte[] u = bytes( 90, 240, 0 );
+        byte[] v = bytes( 240, 110, 0 );
+        YuvPlanes planes = new YuvPlanes( 4, 2, ByteBuffer.wrap( luma ), 6, ByteBuffer.wrap( u ), ByteBuffer.wrap( v ), 3, false );
+
+        int[] row = new int[4];
+        assertEquals( 2, planes.readRow( 0, 1, 4, 2, row ) );
+        assertClose( Color.RED, new Color( row[0] ) );
+        assertClose( Color.BLUE, new Color( row[1] ) );
+    }
+
+    @Test
+    public void feedsTheHistogramLikeAnImage() {
+        byte[] luma = new byte[16 * 16];
+        byte[] u = new byte[8 * 8];
+        byte[] v = new byte[8 * 8];
+        Arrays.fill( luma, (byte)81 );
+        Arrays.fill( u, (byte)90 );
+        Arrays.fill( v, (byte)240 );
+        YuvPlanes planes = new YuvPlanes( 16, 16, ByteBuffer.wrap( luma ), 16, ByteBuffer.wrap( u ), ByteBuffer.wrap( v ), 8, false );
+
+        Map<String, Rectangle> regions = new LinkedHashMap<>( Collections.singletonMap( "all", new Rectangle( 0, 0, 16, 16 ) ) );
+        DominantColor dominant = new ColorHistogram( 2, 1 ).dominantColors( planes, regions ).get( "all" );
+        assertClose( Color.RED, dominant.getColor() );
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for ( int i = 0; i < values.length; i++ ) {
+            result[i] = (byte)values[i];
+        }
+        return result;
+    }
+
+    private static void assertClose(Color expected, Color actual) {
+        assertTrue( actual.toString(), Math.abs( expected.getRed() - actual.getRed() ) <= 3
+                && Math.abs( expected.getGreen() - actual.getGreen() ) <= 3
+                && Math.abs( expected.getBlue() - actual.getBlue() ) <= 3 );
+    }
+}
@@ -0,0 +1,155 @@
+package com.huebris.plexhuebris.index;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ColorCacheTest {
+
+    private Path directory;
+    private ColorCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory( "color-cache" );
+        cache = new ColorCache( new SimpleMeterRegistry(), 1000, 2, directory.resolve( "colors.bin" ).toString(), 0 );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists( directory.resolve( "colors.bin" ) );
+        Files.deleteIfExists( directory );
+    }
+
+    @Test
+    public void servesEveryOffsetOfTheBucket() {
+        cache.put( 42, 3000, colors( Color.RED, Color.BLUE ) );
+
+        Map<Integer, Color> colors = cache.get( 42, 3999, Arrays.asList( 6, 7 ) );
+        assertEquals( Color.RED, colors.get( 6 ) );
+        assertEquals( Color.BLUE, colors.get( 7 ) );
+        assertNull( cache.get( 42, 4000, Arrays.asList( 6, 7 ) ) );
+        assertNull( cache.get( 43, 3000, Arrays.asList( 6, 7 ) ) );
+        assertNull( cache.get( 42, 3000, Arrays.asList( 6, 8 ) ) );
+        assertEquals( 0.25, cache.getHitRatio(), 0.0001 );
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntry() {
+        cache.put( 1, 0, colors( Color.RED, Color.RED ) );
+        cache.put( 1, 1000, colors( Color.GREEN, Color.GREEN ) );
+        cache.get( 1, 0, Collections.singletonList( 6 ) );
+        cache.put( 1, 2000, colors( Color.BLUE, Color.BLUE ) );
+
+        assertEquals( 2, cache.size() );
+        assertTrue( cache.contains( 1, 0, Collections.singletonList( 6 ) ) );
+        assertFalse( cache.contains( 1, 1000, Collections.singletonList( 6 ) ) );
+        assertEquals( 1L, cache.getStatistics().get( "evictions" ) );
+    }
+
+    @Test
+    public void containsLeavesTheEvictionOrderAlone() {
+        cache.put( 1, 0, colors( Color.RED, Color.RED ) );
+        cache.put( 1, 1000, colors( Color.GREEN, Color.GREEN ) );
+        assertTrue( cache.contains( 1, 0, Collections.singletonList( 6 ) ) );
+        cache.put( 1, 2000, colors( Color.BLUE, Color.BLUE ) );
+
+        assertFalse( cache.contains( 1, 0, Collections.singletonList( 6 ) ) );
+        assertTrue( cache.contains( 1, 1000, Collections.singletonList( 6 ) ) );
+    }
+
+    @Test
+    public void restoresTheSnapshotOnStart() {
+        cache.put( 1, 0, colors( Color.RED, Color.RED ) );
+        cache.put( 2, 5000, colors( Color.GREEN, Color.BLUE ) );
+        cache.get( 1, 0, Collections.singletonList( 6 ) );
+        cache.save();
+
+        ColorCache restored = new ColorCache( new SimpleMeterRegistry(), 1000, 2, directory.resolve( "colors.bin" ).toString(), 0 );
+        restored.load();
+
+        assertEquals( cache.keys(), restored.keys() );
+        assertEquals( Color.BLUE, restored.get( 2, 5500, Collections.singletonList( 7 ) ).get( 7 ) );
+    }
+
+    @Test
+    public void ignoresASnapshotOfAnotherBucketSize() {
+        cache.put( 1, 0, colors( Color.RED, Color.RED ) );
+        cache.save();
+
+        ColorCache restored = new ColorCache( new SimpleMeterRegistry(), 2000, 2, directory.resolve( "colors.bin" ).toString(), 0 );
+        restored.load();
+
+        assertEquals( 0, restored.size() );
+    }
+
+    @Test
+    public void keepsTheMostRecentlyUsedKeysThroughManyEvictions() {
+        ColorCache large = new ColorCache( new SimpleMeterRegistry(), 1000, 64, "", 0 );
+        LinkedHashMap<Long, Boolean> expected = new LinkedHashMap<>( 16, 0.75f, true );
+        Random random = new Random( 7 );
+        for ( int n = 0; n < 20000; n++ ) {
+            long offsetMs = random.nextInt( 200 ) * 1000L;
+            if ( random.nextBoolean() ) {
+                large.put( 3, offsetMs, colors( Color.RED, Color.BLUE ) );
+                expected.put( offsetMs, true );
+                if ( expected.size() > 64 ) {
+                    expected.remove( expected.keySet().iterator().next() );
+                }
+            } else {
+                boolean hit = large.get( 3, offsetMs, Collections.singletonList( 6 ) ) != null;
+                assertEquals( expected.get( offsetMs ) != null, hit );
+            }
+        }
+        List<Long> keys = new ArrayList<>();
+        for ( long offsetMs : expected.keySet() ) {
+            keys.add( (3L << 24) | (offsetMs / 1000) );
+        }
+        assertEquals( keys, large.keys() );
+    }
+
+    @Test
+    public void writesTheSnapshotWhileRunning() throws Exception {
+        ColorCache running = new ColorCache( new SimpleMeterRegistry(), 1000, 2, directory.resolve( "colors.bin" ).toString(), 20 );
+        try {
+            running.put( 1, 0, colors( Color.RED, Color.RED ) );
+            long deadline = System.currentTimeMillis() + 5000;
+            while ( !Files.exists( directory.resolve( "colors.bin" ) ) && System.currentTimeMillis() < deadline ) {
+                Thread.sleep( 10 );
+            }
+            // Written well before shutdown, which would save it anyway.
+            assertTrue( Files.exists( directory.resolve( "colors.bin" ) ) );
+        } finally {
+            running.destroy();
+        }
+
+        ColorCache restored = new ColorCache( new SimpleMeterRegistry(), 1000, 2, directory.resolve( "colors.bin" ).toString(), 0 );
+        restored.load();
+        assertEquals( Color.RED, restored.get( 1, 0, Collections.singletonList( 6 ) ).get( 6 ) );
+    }
+
+    private static Map<Integer, Color> colors(Color six, Color seven) {
+        Map<Integer, Color> colors = new LinkedHashMap<>();
+        colors.put( 6, six );
+        colors.put( 7, seven );
+        return colors;
+    }
+}
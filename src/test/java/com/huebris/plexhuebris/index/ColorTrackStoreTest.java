@@ -0,0 +1,104 @@
+package com.huebris.plexhuebris.index;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+public class ColorTrackStoreTest {
+
+    private Path directory;
+    private ColorTrackStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory( "color-track" );
+        store = new ColorTrackStore( directory.toString(), 100 );
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try ( Stream<Path> paths = Files.walk( directory ) ) {
+            paths.sorted( Comparator.reverseOrder() ).forEach( path -> path.toFile().delete() );
+        }
+    }
+
+    @Test
+    public void looksUpTheMostRecentFrameForAnyOffset() throws IOException {
+        try ( ColorTrackWriter writer = store.createWriter( 42, Arrays.asList( 6, 7 ) ) ) {
+            writer.append( 0, colors( Color.RED, Color.BLUE ) );
+            writer.append( 250, colors( Color.GREEN, Color.WHITE ) );
+            writer.append( 410, colors( Color.BLACK, Color.YELLOW ) );
+            writer.commit();
+        }
+
+        ColorTrack track = store.find( 42 );
+
+        assertEquals( Arrays.asList( 6, 7 ), track.getLights() );
+        assertEquals( 6, track.getRecordCount() );
+        assertEquals( 300, track.timestampAt( 3 ) );
+        assertEquals( colors( Color.RED, Color.BLUE ), track.colorsAt( 0 ) );
+        assertEquals( colors( Color.RED, Color.BLUE ), track.colorsAt( 299 ) );
+        assertEquals( colors( Color.GREEN, Color.WHITE ), track.colorsAt( 300 ) );
+        assertEquals( colors( Color.BLACK, Color.YELLOW ), track.colorsAt( 599 ) );
+        assertNull( track.colorsAt( 600 ) );
+    }
+
+    @Test
+    public void abandonedWritesLeaveNoTrack() throws IOException {
+        try ( ColorTrackWriter writer = store.createWriter( 7, Arrays.asList( 6 ) ) ) {
+            writer.append( 0, colors( Color.RED, Color.RED ) );
+        }
+
+        assertNull( store.find( 7 ) );
+        try ( Stream<Path> files = Files.list( directory ) ) {
+            assertFalse( files.findAny().isPresent() );
+        }
+    }
+
+    @Test
+    public void servesThePreviousTrackUntilTheNewOneIsCommitted() throws IOException {
+        assertNull( store.find( 42 ) );
+        assertFalse( store.contains( 42 ) );
+        write( 42, Color.RED );
+        assertEquals( Color.RED, store.find( 42 ).colorsAt( 0 ).get( 6 ) );
+
+        ColorTrack previous = store.find( 42 );
+        try ( ColorTrackWriter writer = store.createWriter( 42, Arrays.asList( 6, 7 ) ) ) {
+            writer.append( 0, colors( Color.GREEN, Color.GREEN ) );
+            assertEquals( Color.RED, store.find( 42 ).colorsAt( 0 ).get( 6 ) );
+            writer.commit();
+        }
+
+        assertEquals( Color.GREEN, store.find( 42 ).colorsAt( 0 ).get( 6 ) );
+        // The replaced track was unmapped.
+        assertNull( previous.colorsAt( 0 ) );
+    }
+
+    private void write(long partId, Color color) throws IOException {
+        try ( ColorTrackWriter writer = store.createWriter( partId, Arrays.asList( 6, 7 ) ) ) {
+            writer.append( 0, colors( color, color ) );
+            writer.commit();
+        }
+    }
+
+    private Map<Integer, Color> colors(Color six, Color seven) {
+        Map<Integer, Color> colors = new LinkedHashMap<>();
+        colors.put( 6, six );
+        colors.put( 7, seven );
+        return colors;
+    }
+}
@@ -0,0 +1,65 @@
+package com.huebris.plexhuebris.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    private final AtomicLong now = new AtomicLong();
+    private final CircuitBreaker breaker = new CircuitBreaker( "hue", 3, 1000, now::get );
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        fail( 2 );
+        breaker.tryAcquire();
+        breaker.onSuccess();
+        fail( 2 );
+        assertEquals( CircuitBreaker.State.CLOSED, breaker.getState() );
+
+        fail( 1 );
+        assertEquals( CircuitBreaker.State.OPEN, breaker.getState() );
+        assertFalse( breaker.tryAcquire() );
+        assertEquals( 1L, breaker.getStatistics().get( "rejected" ) );
+    }
+
+    @Test
+    public void letsOneTrialThroughOnceTheOpenPeriodIsOver() {
+        fail( 3 );
+        advance( 1000 );
+
+        assertEquals( CircuitBreaker.State.HALF_OPEN, breaker.getState() );
+        assertTrue( breaker.tryAcquire() );
+        assertFalse( breaker.tryAcquire() );
+        breaker.onSuccess();
+        assertEquals( CircuitBreaker.State.CLOSED, breaker.getState() );
+    }
+
+    @Test
+    public void reopensWhenTheTrialFails() {
+        fail( 3 );
+        advance( 1000 );
+        fail( 1 );
+
+        assertEquals( CircuitBreaker.State.OPEN, breaker.getState() );
+        advance( 999 );
+        assertFalse( breaker.tryAcquire() );
+        assertEquals( 2L, breaker.getStatistics().get( "opened" ) );
+    }
+
+    private void fail(int times) {
+        for ( int i = 0; i < times; i++ ) {
+            assertTrue( breaker.tryAcquire() );
+            breaker.onFailure();
+        }
+    }
+
+    private void advance(long ms) {
+        now.addAndGet( TimeUnit.MILLISECONDS.toNanos( ms ) );
+    }
+}
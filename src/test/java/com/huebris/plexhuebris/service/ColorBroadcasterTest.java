@@ -0,0 +1,154 @@
+package com.huebris.plexhuebris.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ColorBroadcasterTest {
+
+    private final HueService hueService = new HueService( new SimpleMeterRegistry(), new CircuitBreakers( 5, 10000 ) ) {
+        @Override
+        public List<Integer> getLights() {
+            return Arrays.asList( 6, 7 );
+        }
+    };
+
+    private final ColorBroadcaster broadcaster = new ColorBroadcaster( new LightZones( hueService ), new SimpleMeterRegistry(), 2, 2, 5000 );
+
+    @After
+    public void tearDown() {
+        broadcaster.shutdown();
+    }
+
+    @Test
+    public void encodesEveryLightWithItsZone() throws Exception {
+        String frame = broadcaster.encode( "session", "tv", 1500, Collections.singletonMap( 6, new Color( 255, 0, 16 ) ) );
+        assertEquals( "{\"source\":\"session\",\"player\":\"tv\",\"offsetMs\":1500,\"lights\":[{\"light\":6,\"zone\":\"full\",\"color\":\"#ff0010\"}]}", frame );
+    }
+
+    @Test
+    public void slowSubscriberDropsItsOldestFramesWithoutHoldingUpOthers() throws Exception {
+        CountDownLatch sending = new CountDownLatch( 1 );
+        CountDownLatch release = new CountDownLatch( 1 );
+        List<String> slow = new CopyOnWriteArrayList<>();
+        List<String> fast = new CopyOnWriteArrayList<>();
+        broadcaster.subscribe( "slow", null, frame -> {
+            sending.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            slow.add( frame );
+        } );
+        broadcaster.subscribe( "fast", null, fast::add );
+
+        broadcaster.publish( "session", "tv", 0, Collections.singletonMap( 6, Color.RED ) );
+        assertTrue( sending.await( 1, TimeUnit.SECONDS ) );
+        for ( int i = 1; i < 10; i++ ) {
+            broadcaster.publish( "session", "tv", i, Collections.singletonMap( 6, Color.RED ) );
+            // Pace the frames so only the slow subscriber falls behind.
+            waitFor( fast, i + 1 );
+        }
+        release.countDown();
+        waitFor( slow, 3 );
+
+        // The first frame was already being sent; of the rest only the newest two fit the buffer.
+        assertEquals( 3, slow.size() );
+        assertTrue( slow.get( 2 ).contains( "\"offsetMs\":9" ) );
+        assertEquals( 7L, broadcaster.getStatistics().get( "dropped" ) );
+    }
+
+    @Test
+    public void sendsOnlyTheSubscribedPlayer() throws Exception {
+        List<String> frames = new CopyOnWriteArrayList<>();
+        broadcaster.subscribe( "bedroom-display", "bedroom", frames::add );
+
+        broadcaster.publish( "session", "tv", 0, Collections.singletonMap( 6, Color.RED ) );
+        broadcaster.publish( "session", "bedroom", 0, Collections.singletonMap( 6, Color.BLUE ) );
+        waitFor( frames, 1 );
+        Thread.sleep( 50 );
+
+        assertEquals( 1, frames.size() );
+        assertTrue( frames.get( 0 ).contains( "bedroom" ) );
+    }
+
+    @Test
+    public void dropsASubscriberWhoseSinkFails() throws Exception {
+        CountDownLatch closed = new CountDownLatch( 1 );
+        broadcaster.subscribe( "broken", null, new ColorBroadcaster.Sink() {
+            @Override
+            public void send(String frame) throws java.io.IOException {
+                throw new java.io.IOException( "gone" );
+            }
+
+            @Override
+            public void close() {
+                closed.countDown();
+            }
+        } );
+
+        broadcaster.publish( "session", "tv", 0, Collections.singletonMap( 6, Color.RED ) );
+        assertTrue( closed.await( 1, TimeUnit.SECONDS ) );
+        assertEquals( 0, broadcaster.getSubscriberCount() );
+    }
+
+    @Test
+    public void dropsSubscribersWhoseSendsStallAndFreesTheirSenders() throws Exception {
+        ColorBroadcaster broadcaster = new ColorBroadcaster( new LightZones( hueService ), new SimpleMeterRegistry(), 2, 2, 100 );
+        try {
+            // Two clients whose sends never return on their own hold both sender threads.
+            CountDownLatch stuck = new CountDownLatch( 2 );
+            CountDownLatch closed = new CountDownLatch( 2 );
+            for ( String id : Arrays.asList( "stuck-1", "stuck-2" ) ) {
+                broadcaster.subscribe( id, null, new ColorBroadcaster.Sink() {
+                    @Override
+                    public void send(String frame) throws java.io.IOException {
+                        stuck.countDown();
+                        try {
+                            new CountDownLatch( 1 ).await();
+                        } catch (InterruptedException e) {
+                            throw new java.io.InterruptedIOException( "send interrupted" );
+                        }
+                    }
+
+                    @Override
+                    public void close() {
+                        closed.countDown();
+                    }
+                } );
+            }
+            broadcaster.publish( "session", "tv", 0, Collections.singletonMap( 6, Color.RED ) );
+            assertTrue( stuck.await( 1, TimeUnit.SECONDS ) );
+
+            List<String> frames = new CopyOnWriteArrayList<>();
+            broadcaster.subscribe( "fast", null, frames::add );
+            broadcaster.publish( "session", "tv", 1, Collections.singletonMap( 6, Color.RED ) );
+
+            assertTrue( closed.await( 1, TimeUnit.SECONDS ) );
+            waitFor( frames, 1 );
+            assertEquals( 1, broadcaster.getSubscriberCount() );
+            assertEquals( 2L, broadcaster.getStatistics().get( "stalled" ) );
+        } finally {
+            broadcaster.shutdown();
+        }
+    }
+
+    private static void waitFor(List<String> frames, int count) throws InterruptedException {
+        for ( int i = 0; i < 200 && frames.size() < count; i++ ) {
+            Thread.sleep( 10 );
+        }
+        assertEquals( count, frames.size() );
+    }
+}
@@ -0,0 +1,152 @@
+package com.huebris.plexhuebris.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Test;
+
+import java.awt.*;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HueCommandSchedulerTest {
+
+    private final List<Color> delivered = new CopyOnWriteArrayList<>();
+
+    private final HueService hueService = new HueService( new SimpleMeterRegistry(), new CircuitBreakers( 5, 10000 ) ) {
+        @Override
+        public Map<Integer, CompletableFuture<Boolean>> dispatchColors(Map<Integer, Color> colors, boolean allowGroupAction) {
+            Map<Integer, CompletableFuture<Boolean>> result = new LinkedHashMap<>();
+            for ( Map.Entry<Integer, Color> entry : colors.entrySet() ) {
+                if ( Color.BLACK.equals( entry.getValue() ) ) {
+                    throw new IllegalStateException( "Bridge went away" );
+                }
+                if ( Color.GRAY.equals( entry.getValue() ) ) {
+                    // Stands for a color the light already shows.
+                    result.put( entry.getKey(), HueService.SUPPRESSED );
+                    continue;
+                }
+                delivered.add( entry.getValue() );
+                result.put( entry.getKey(), CompletableFuture.completedFuture( true ) );
+            }
+            return result;
+        }
+
+        @Override
+        public boolean isGroupAction(Map<Integer, Color> colors) {
+            return false;
+        }
+    };
+
+    private HueCommandScheduler scheduler;
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void newerColorReplacesUnsentColor() throws Exception {
+        scheduler = new HueCommandScheduler( hueService, new LatencyTracker( 16, 90, 0 ), 2, 1, 1, 2000 );
+        scheduler.start();
+
+        scheduler.submit( 6, Color.RED );
+        waitFor( 1 );
+        // The bucket is empty now, so these pile up in the single pending slot for light 6.
+        scheduler.submit( 6, Color.GREEN );
+        scheduler.submit( 6, Color.BLUE );
+        scheduler.submit( 6, Color.WHITE );
+        waitFor( 2 );
+
+        assertEquals( Color.RED, delivered.get( 0 ) );
+        assertEquals( Color.WHITE, delivered.get( 1 ) );
+        assertEquals( 2, scheduler.getCoalescedCount() );
+        assertEquals( 2, scheduler.getSentCount() );
+    }
+
+    @Test
+    public void clearDropsPendingCommands() throws Exception {
+        scheduler = new HueCommandScheduler( hueService, new LatencyTracker( 16, 90, 0 ), 0.5, 1, 1, 2000 );
+        scheduler.start();
+
+        scheduler.submit( 6, Color.RED );
+        waitFor( 1 );
+        scheduler.submit( 6, Color.GREEN );
+        scheduler.submit( 7, Color.GREEN );
+        scheduler.clear();
+
+        assertEquals( 2, scheduler.getDroppedCount() );
+        assertEquals( 0, scheduler.getPendingCount() );
+        assertTrue( delivered.size() == 1 );
+    }
+
+    @Test
+    public void skipsColorsThatMissedTheirDeadline() throws Exception {
+        scheduler = new HueCommandScheduler( hueService, new LatencyTracker( 16, 90, 0 ), 5, 1, 1, 50 );
+        scheduler.start();
+
+        scheduler.submit( 6, Color.RED );
+        waitFor( 1 );
+        // The next token is 200 ms away, well past the deadline.
+        scheduler.submit( 6, Color.GREEN );
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( scheduler.getExpiredCount() == 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( 1, scheduler.getExpiredCount() );
+        assertEquals( 1, delivered.size() );
+    }
+
+    @Test
+    public void keepsSendingAfterADispatchFails() throws Exception {
+        scheduler = new HueCommandScheduler( hueService, new LatencyTracker( 16, 90, 0 ), 10, 10, 1, 2000 );
+        scheduler.start();
+
+        scheduler.submit( 6, Color.BLACK );
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( scheduler.getDroppedCount() == 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+        scheduler.submit( 6, Color.RED );
+        waitFor( 1 );
+
+        assertEquals( 1, scheduler.getDroppedCount() );
+        assertEquals( Color.RED, delivered.get( 0 ) );
+        assertEquals( 1, scheduler.getSentCount() );
+    }
+
+    @Test
+    public void suppressedCommandsHandTheirTokenBack() throws Exception {
+        scheduler = new HueCommandScheduler( hueService, new LatencyTracker( 16, 90, 0 ), 0.2, 1, 1, 0 );
+        scheduler.start();
+
+        scheduler.submit( 6, Color.GRAY );
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( scheduler.getSuppressedCount() == 0 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+        long started = System.currentTimeMillis();
+        scheduler.submit( 6, Color.RED );
+        waitFor( 1 );
+
+        assertEquals( 1, scheduler.getSuppressedCount() );
+        assertEquals( Color.RED, delivered.get( 0 ) );
+        // Had the suppressed command kept its token, the next one would be five seconds away.
+        assertTrue( System.currentTimeMillis() - started < 2500 );
+    }
+
+    private void waitFor(int deliveries) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( delivered.size() < deliveries && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+        // Give the completion callback a moment to update the counters.
+        Thread.sleep( 50 );
+    }
+}
@@ -0,0 +1,141 @@
+package com.huebris.plexhuebris.service;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HueEntertainmentTransportTest {
+
+    private DatagramSocket receiver;
+    private HueEntertainmentTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        // Stand-in for the bridge: a plain UDP socket on the loopback interface.
+        receiver = new DatagramSocket( 0, InetAddress.getLoopbackAddress() );
+        receiver.setSoTimeout( 2000 );
+        transport = new HueEntertainmentTransport( new LatencyTracker( 16, 90, 0 ), "http://unused", "127.0.0.1", receiver.getLocalPort(), 50, 200, 0 );
+        transport.start();
+    }
+
+    @After
+    public void tearDown() {
+        transport.shutdown();
+        receiver.close();
+    }
+
+    @Test
+    public void streamsAllLightsInOneDatagram() throws Exception {
+        Map<Integer, Color> colors = new LinkedHashMap<>();
+        colors.put( 6, new Color( 255, 0, 10 ) );
+        colors.put( 7, new Color( 1, 128, 255 ) );
+        transport.submit( colors );
+
+        DatagramPacket packet = new DatagramPacket( new byte[256], 256 );
+        receiver.receive( packet );
+
+        assertEquals( HueEntertainmentTransport.HEADER_SIZE + 2 * HueEntertainmentTransport.LIGHT_SIZE, packet.getLength() );
+        ByteBuffer in = ByteBuffer.wrap( packet.getData(), 0, packet.getLength() );
+        byte[] name = new byte[9];
+        in.get( name );
+        assertArrayEquals( HueEntertainmentTransport.PROTOCOL_NAME, name );
+        assertEquals( 1, in.get() );
+        in.position( HueEntertainmentTransport.HEADER_SIZE );
+
+        assertEquals( 0, in.get() );
+        assertEquals( 6, in.getShort() );
+        assertArrayEquals( new int[] { 0xffff, 0, 10 * 257 }, readRgb( in ) );
+        assertEquals( 0, in.get() );
+        assertEquals( 7, in.getShort() );
+        assertArrayEquals( new int[] { 257, 128 * 257, 0xffff }, readRgb( in ) );
+    }
+
+    @Test
+    public void latestColorWinsAndSequenceAdvances() throws Exception {
+        transport.submit( Arrays.asList( 6 ), Color.RED );
+        transport.submit( Arrays.asList( 6 ), Color.BLUE );
+
+        DatagramPacket first = receiveLight( 6 );
+        DatagramPacket second = receiveLight( 6 );
+        ByteBuffer in = ByteBuffer.wrap( second.getData(), 0, second.getLength() );
+        in.position( HueEntertainmentTransport.HEADER_SIZE + 3 );
+        assertArrayEquals( new int[] { 0, 0, 0xffff }, readRgb( in ) );
+        assertEquals( (first.getData()[11] + 1) & 0xff, second.getData()[11] & 0xff );
+    }
+
+    @Test
+    public void repeatsAnUnchangedFrameOnlyAsAKeepAlive() throws Exception {
+        transport.submit( Arrays.asList( 6 ), Color.BLUE );
+        receiveLight( 6 );
+        long received = System.nanoTime();
+        receiveLight( 6 );
+
+        // At 50 Hz the frame would have gone out ten times in those 200 ms.
+        assertTrue( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - received ) >= 150 );
+    }
+
+    @Test
+    public void fadesToANewColorInsteadOfJumping() throws Exception {
+        transport.shutdown();
+        transport = new HueEntertainmentTransport( new LatencyTracker( 16, 90, 0 ), "http://unused", "127.0.0.1", receiver.getLocalPort(), 50, 200, 400 );
+        transport.start();
+
+        transport.submit( Arrays.asList( 6 ), Color.RED );
+        assertArrayEquals( new int[] { 0xffff, 0, 0 }, readLight( receive() ) );
+        transport.submit( Arrays.asList( 6 ), Color.BLUE );
+
+        int between = 0;
+        int[] rgb;
+        do {
+            rgb = readLight( receive() );
+            if ( rgb[0] > 0 && rgb[0] < 0xffff && rgb[2] > 0 && rgb[2] < 0xffff ) {
+                between++;
+            }
+        } while ( rgb[2] != 0xffff || rgb[0] != 0 );
+        // Sent at 50 Hz over 400 ms, most frames fall between the two colors.
+        assertTrue( between > 5 );
+    }
+
+    private DatagramPacket receive() throws Exception {
+        DatagramPacket packet = new DatagramPacket( new byte[256], 256 );
+        receiver.receive( packet );
+        return packet;
+    }
+
+    private int[] readLight(DatagramPacket packet) {
+        ByteBuffer in = ByteBuffer.wrap( packet.getData(), 0, packet.getLength() );
+        in.position( HueEntertainmentTransport.HEADER_SIZE + 3 );
+        return readRgb( in );
+    }
+
+    private DatagramPacket receiveLight(int light) throws Exception {
+        while ( true ) {
+            DatagramPacket packet = new DatagramPacket( new byte[256], 256 );
+            receiver.receive( packet );
+            ByteBuffer in = ByteBuffer.wrap( packet.getData(), 0, packet.getLength() );
+            in.position( HueEntertainmentTransport.HEADER_SIZE + 1 );
+            int[] rgb;
+            if ( in.getShort() == light && (rgb = readRgb( in ))[2] == 0xffff && rgb[0] == 0 ) {
+                return packet;
+            }
+        }
+    }
+
+    private int[] readRgb(ByteBuffer in) {
+        return new int[] { in.getShort() & 0xffff, in.getShort() & 0xffff, in.getShort() & 0xffff };
+    }
+}
@@ -0,0 +1,197 @@
+package com.huebris.plexhuebris.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.awt.*;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class HueServiceTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    /** The paths the stubbed bridge was asked for, in the order it was asked. */
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean overlapped = new AtomicBoolean( true );
+    private volatile CountDownLatch inFlight = new CountDownLatch( 0 );
+    private volatile String failingPath;
+    private volatile boolean groupsUnavailable;
+
+    private HueService hueService;
+    private HueService bridgeService;
+
+    @Before
+    public void setUp() {
+        hueService = new HueService( new SimpleMeterRegistry(), new CircuitBreakers( 5, 10000 ) );
+        hueService.setSuppressDeltaE( 2.3 );
+    }
+
+    @After
+    public void tearDown() {
+        if ( bridgeService != null ) {
+            bridgeService.destroy();
+        }
+    }
+
+    @Test
+    public void sendsTheFullStateToAnUnknownLight() {
+        Map<String, Object> changes = hueService.changesFor( 6, new Color( 200, 40, 40 ) );
+        assertEquals( hueService.buildStatePayload( new Color( 200, 40, 40 ) ), changes );
+    }
+
+    @Test
+    public void suppressesAnIndistinguishableColor() {
+        hueService.acknowledge( Collections.singleton( 6 ), new Color( 200, 40, 40 ) );
+        assertNull( hueService.changesFor( 6, new Color( 201, 40, 41 ) ) );
+        assertTrue( hueService.changesFor( 7, new Color( 201, 40, 41 ) ).containsKey( "on" ) );
+    }
+
+    @Test
+    public void leavesOutFieldsTheLightAlreadyHas() {
+        hueService.acknowledge( Collections.singleton( 6 ), new Color( 200, 40, 40 ) );
+        Map<String, Object> changes = hueService.changesFor( 6, new Color( 100, 20, 20 ) );
+
+        assertFalse( changes.containsKey( "on" ) );
+        assertFalse( changes.containsKey( "hue" ) );
+        assertTrue( changes.containsKey( "bri" ) );
+        assertTrue( changes.containsKey( "transitiontime" ) );
+    }
+
+    @Test
+    public void turnsTheLightOffAndOnAgain() {
+        hueService.acknowledge( Collections.singleton( 6 ), new Color( 200, 40, 40 ) );
+        assertEquals( false, hueService.changesFor( 6, Color.BLACK ).get( "on" ) );
+
+        hueService.acknowledge( Collections.singleton( 6 ), Color.BLACK );
+        assertEquals( true, hueService.changesFor( 6, new Color( 200, 40, 40 ) ).get( "on" ) );
+    }
+
+    @Test
+    public void dispatchesLightsInParallelAndReportsEachFailureOnItsOwn() throws Exception {
+        startBridgeService( "6,7,8" );
+        failingPath = "/api/user/lights/7/state";
+        // Every light command waits until all three are on the wire together.
+        inFlight = new CountDownLatch( 3 );
+
+        Map<Integer, Color> colors = new LinkedHashMap<>();
+        colors.put( 6, new Color( 200, 40, 40 ) );
+        colors.put( 7, new Color( 40, 200, 40 ) );
+        colors.put( 8, new Color( 40, 40, 200 ) );
+        Map<Integer, CompletableFuture<Boolean>> results = bridgeService.dispatchColors( colors );
+
+        assertTrue( results.get( 6 ).get( 5, TimeUnit.SECONDS ) );
+        assertFalse( results.get( 7 ).get( 5, TimeUnit.SECONDS ) );
+        assertTrue( results.get( 8 ).get( 5, TimeUnit.SECONDS ) );
+        assertTrue( overlapped.get() );
+        assertEquals( 3, requests.size() );
+        assertEquals( 2, bridgeService.getSentCount() );
+
+        // The failed light is sent in full next time, the others only when their color changes.
+        assertNull( bridgeService.changesFor( 6, new Color( 200, 40, 40 ) ) );
+        assertEquals( bridgeService.buildStatePayload( new Color( 40, 200, 40 ) ), bridgeService.changesFor( 7, new Color( 40, 200, 40 ) ) );
+    }
+
+    @Test
+    public void collapsesIdenticalStatesIntoOneGroupCommand() throws Exception {
+        startBridgeService( "6,7,8" );
+
+        Map<Integer, Color> colors = new LinkedHashMap<>();
+        for ( int light = 6; light <= 8; light++ ) {
+            colors.put( light, new Color( 200, 40, 40 ) );
+        }
+        Map<Integer, CompletableFuture<Boolean>> results = bridgeService.dispatchColors( colors );
+
+        assertTrue( results.get( 6 ).get( 5, TimeUnit.SECONDS ) );
+        assertSame( results.get( 6 ), results.get( 7 ) );
+        assertSame( results.get( 6 ), results.get( 8 ) );
+        assertEquals( Collections.singletonList( "/api/user/groups/1/action" ), requests );
+        for ( int light = 6; light <= 8; light++ ) {
+            assertNull( bridgeService.changesFor( light, new Color( 200, 40, 40 ) ) );
+        }
+    }
+
+    @Test
+    public void sendsEachLightOnItsOwnWhenTheGroupCannotBeSetUp() throws Exception {
+        groupsUnavailable = true;
+        startBridgeService( "6,7,8" );
+
+        Map<Integer, Color> colors = new LinkedHashMap<>();
+        for ( int light = 6; light <= 8; light++ ) {
+            colors.put( light, new Color( 200, 40, 40 ) );
+        }
+        assertFalse( bridgeService.isGroupAction( colors ) );
+        Map<Integer, CompletableFuture<Boolean>> results = bridgeService.dispatchColors( colors );
+
+        for ( int light = 6; light <= 8; light++ ) {
+            assertTrue( results.get( light ).get( 5, TimeUnit.SECONDS ) );
+        }
+        assertEquals( 3, requests.size() );
+        assertTrue( requests.containsAll( Arrays.asList( "/api/user/lights/6/state", "/api/user/lights/7/state", "/api/user/lights/8/state" ) ) );
+    }
+
+    /**
+     * A service wired to a stubbed bridge, which runs the group lookup first and forgets about it.
+     */
+    private void startBridgeService(String lights) {
+        bridgeService = new HueService( new SimpleMeterRegistry(), new CircuitBreakers( 5, 10000 ) ) {
+            @Override
+            protected JsonNode execute(HttpRequestBase request, String path) throws IOException {
+                return bridge( request, path );
+            }
+        };
+        ReflectionTestUtils.setField( bridgeService, "HUE_SERVER", "http://bridge" );
+        ReflectionTestUtils.setField( bridgeService, "HUE_USER", "user" );
+        ReflectionTestUtils.setField( bridgeService, "HUE_LIGHTS", lights );
+        ReflectionTestUtils.setField( bridgeService, "groupName", "plex-huebris" );
+        ReflectionTestUtils.setField( bridgeService, "maxConnections", 4 );
+        ReflectionTestUtils.setField( bridgeService, "timeoutMs", 1000 );
+        ReflectionTestUtils.setField( bridgeService, "transitionMs", 2000L );
+        ReflectionTestUtils.setField( bridgeService, "suppressDeltaE", 2.3 );
+        bridgeService.init();
+        requests.clear();
+    }
+
+    private JsonNode bridge(HttpRequestBase request, String path) throws IOException {
+        if ( request instanceof HttpGet && "/api/user/groups".equals( path ) ) {
+            if ( groupsUnavailable ) {
+                throw new IOException( "Hue bridge returned 503 for " + path );
+            }
+            return objectMapper.readTree( "{\"1\": {\"name\": \"plex-huebris\", \"lights\": [\"6\", \"7\", \"8\"]}}" );
+        }
+        requests.add( path );
+        inFlight.countDown();
+        try {
+            if ( !inFlight.await( 5, TimeUnit.SECONDS ) ) {
+                overlapped.set( false );
+            }
+        } catch (InterruptedException e) {
+            throw new IOException( e );
+        }
+        if ( path.equals( failingPath ) ) {
+            throw new IOException( "Hue bridge rejected " + path );
+        }
+        return objectMapper.createArrayNode();
+    }
+}
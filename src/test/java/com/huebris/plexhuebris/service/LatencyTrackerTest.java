@@ -0,0 +1,29 @@
+package com.huebris.plexhuebris.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyTrackerTest {
+
+    @Test
+    public void estimatesFromThePercentileOfTheRecentWindow() {
+        LatencyTracker tracker = new LatencyTracker( 10, 90, 400 );
+        assertEquals( 400, tracker.getLatencyMs() );
+
+        for ( int i = 1; i <= 10; i++ ) {
+            tracker.record( LatencyTracker.DISPATCH, TimeUnit.MILLISECONDS.toNanos( i * 10 ) );
+        }
+        tracker.record( LatencyTracker.ANALYSIS, TimeUnit.MILLISECONDS.toNanos( 5 ) );
+        assertEquals( 90, tracker.percentileMs( LatencyTracker.DISPATCH ) );
+        assertEquals( 495, tracker.getLatencyMs() );
+
+        // The window only keeps the last ten samples.
+        for ( int i = 0; i < 10; i++ ) {
+            tracker.record( LatencyTracker.DISPATCH, TimeUnit.MILLISECONDS.toNanos( 20 ) );
+        }
+        assertEquals( 20, tracker.percentileMs( LatencyTracker.DISPATCH ) );
+    }
+}
@@ -0,0 +1,113 @@
+package com.huebris.plexhuebris.service;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class MediaScanServiceTest {
+
+    @Test
+    public void skipsPicturesLeftOverFromBeforeTheSeek() throws Exception {
+        ScriptedSource source = new ScriptedSource();
+        // A packet in front of the keyframe is never decoded, and the decoder still holds 1800
+        // from before the seek when it is handed the keyframe.
+        source.at( 3000, new ScriptedPacket( false, 1960, 1960 ),
+                new ScriptedPacket( true, 2000, 1800, MediaScanService.VideoSource.NO_PICTURE ),
+                new ScriptedPacket( false, 2040, 2000 ) );
+
+        assertEquals( 2000, source.decodeKeyframe( 3000 ) );
+    }
+
+    @Test
+    public void decodesEveryKeyframeOnlyOnce() throws Exception {
+        ScriptedSource source = new ScriptedSource();
+        source.at( 0, new ScriptedPacket( true, 0, 0 ) );
+        source.at( 500, new ScriptedPacket( true, 0, 0 ) );
+        source.at( 1000, new ScriptedPacket( true, 1000, 1000 ) );
+
+        assertEquals( 0, source.decodeKeyframe( 0 ) );
+        assertEquals( MediaScanService.VideoSource.NO_PICTURE, source.decodeKeyframe( 500 ) );
+        assertEquals( 1000, source.decodeKeyframe( 1000 ) );
+    }
+
+    @Test
+    public void reportsTheEndOfTheFile() throws Exception {
+        ScriptedSource source = new ScriptedSource();
+        source.at( 0, new ScriptedPacket( true, 0, 0 ) );
+        // Only leftovers come out after the last keyframe.
+        source.at( 1000, new ScriptedPacket( true, 1000, 900 ) );
+
+        assertEquals( 0, source.decodeKeyframe( 0 ) );
+        assertEquals( MediaScanService.VideoSource.NO_PICTURE, source.decodeKeyframe( 1000 ) );
+        assertEquals( MediaScanService.VideoSource.END_OF_FILE, source.decodeKeyframe( 2000 ) );
+    }
+
+    private static class ScriptedPacket {
+        private final boolean key;
+        private final long ptsMs;
+        /** What each decode call on this packet completes. */
+        private final long[] pictures;
+
+        private ScriptedPacket(boolean key, long ptsMs, long... pictures) {
+            this.key = key;
+            this.ptsMs = ptsMs;
+            this.pictures = pictures;
+        }
+    }
+
+    /**
+     * Plays back the packets the demuxer would read after each seek, without touching native code.
+     */
+    private static class ScriptedSource extends MediaScanService.VideoSource {
+        private final Map<Long, List<ScriptedPacket>> packetsAfterSeek = new HashMap<>();
+        private final Deque<ScriptedPacket> packets = new ArrayDeque<>();
+        private ScriptedPacket packet;
+        private int decoded;
+
+        private ScriptedSource() {
+            super( null, null );
+        }
+
+        private void at(long millis, ScriptedPacket... packets) {
+            packetsAfterSeek.put( millis, Arrays.asList( packets ) );
+        }
+
+        @Override
+        void seek(long millis) {
+            packets.clear();
+            List<ScriptedPacket> script = packetsAfterSeek.get( millis );
+            if ( script != null ) {
+                packets.addAll( script );
+            }
+        }
+
+        @Override
+        boolean readVideoPacket() {
+            packet = packets.poll();
+            decoded = 0;
+            return packet != null;
+        }
+
+        @Override
+        boolean isKeyPacket() {
+            return packet.key;
+        }
+
+        @Override
+        long packetMillis() {
+            return packet.ptsMs;
+        }
+
+        @Override
+        long decodeNext() {
+            return decoded < packet.pictures.length ? packet.pictures[decoded++] : END_OF_PACKET;
+        }
+    }
+}
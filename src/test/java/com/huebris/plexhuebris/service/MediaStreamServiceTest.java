@@ -0,0 +1,142 @@
+package com.huebris.plexhuebris.service;
+
+import com.huebris.plexhuebris.color.ColorAnalyzer;
+import com.huebris.plexhuebris.color.ColorHistogram;
+import com.huebris.plexhuebris.index.ColorCache;
+import com.huebris.plexhuebris.index.ColorTrackStore;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MediaStreamServiceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final List<Map<Integer, Color>> submitted = new CopyOnWriteArrayList<>();
+    private final AtomicInteger cleared = new AtomicInteger();
+
+    private final HueTransport transport = new HueTransport() {
+        @Override
+        public void submit(Map<Integer, Color> colors) {
+            submitted.add( colors );
+        }
+
+        @Override
+        public void clear() {
+            cleared.incrementAndGet();
+        }
+
+        @Override
+        public Map<String, Object> getStatistics() {
+            return new LinkedHashMap<>();
+        }
+    };
+
+    private final HueService hueService = new HueService( meterRegistry, new CircuitBreakers( 5, 10000 ) ) {
+        @Override
+        public List<Integer> getLights() {
+            return Arrays.asList( 6, 7 );
+        }
+    };
+
+    private final LightZones lightZones = new LightZones( hueService );
+    private Path indexDirectory;
+    private ThumbnailPrefetcher prefetcher;
+    private SessionTracker sessionTracker;
+    private final LatencyTracker latencyTracker = new LatencyTracker( 16, 90, 400 );
+    private MediaStreamService service;
+
+    @Before
+    public void setUp() throws IOException {
+        indexDirectory = Files.createTempDirectory( "media-stream" );
+        prefetcher = new ThumbnailPrefetcher( meterRegistry, new CircuitBreakers( 5, 10000 ), new ThumbnailDecoder( 160, 8 ), "http://plex", "32400", "token", 2000, 2, 1, 2000, 0, 320, 180 ) {
+            @Override
+            protected BufferedImage fetch(long partId, long offsetMs, int timeoutMs) {
+                return redImage();
+            }
+        };
+        sessionTracker = new SessionTracker( meterRegistry, new CircuitBreakers( 5, 10000 ), "http://plex", "32400", "token", 2000, 10000, 1500 );
+        service = new MediaStreamService( transport, lightZones, new ColorTrackStore( indexDirectory.toString(), 250 ),
+                new ColorCache( meterRegistry, 2000, 64, "", 0 ), new ColorAnalyzer( 1 ), new ColorHistogram( 1, 1 ), prefetcher, sessionTracker,
+                new ColorBroadcaster( lightZones, meterRegistry, 8, 1, 2000 ), latencyTracker, meterRegistry, 2, true, 2000, 10000, 0.6, 40, 100, 4000, 6 );
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        service.destroy();
+        prefetcher.shutdown();
+        Files.deleteIfExists( indexDirectory );
+    }
+
+    @Test
+    public void ticksOnlyWhilePlaying() throws InterruptedException {
+        assertEquals( EngineState.IDLE, service.getState() );
+        sessionTracker.update( Collections.singletonList( session( "tv", 42 ) ) );
+
+        service.start();
+        assertEquals( EngineState.PLAYING, service.getState() );
+        waitForSubmits( 1 );
+        // The first sample of a room has nothing to be smoothed with.
+        assertEquals( service.getZoneColors( redImage(), Arrays.asList( 6 ) ).get( 6 ), submitted.get( 0 ).get( 6 ) );
+
+        service.pause();
+        assertEquals( EngineState.PAUSED, service.getState() );
+        Thread.sleep( 100 );
+        int submits = submitted.size();
+        Thread.sleep( 700 );
+        assertEquals( submits, submitted.size() );
+
+        service.stop();
+        assertEquals( EngineState.STOPPED, service.getState() );
+        assertTrue( cleared.get() > 0 );
+    }
+
+    @Test
+    public void stopsOnceEverySessionHasEnded() throws InterruptedException {
+        service.start();
+        for ( int i = 0; i < 100 && service.getState() != EngineState.STOPPED; i++ ) {
+            Thread.sleep( 10 );
+        }
+        assertEquals( EngineState.STOPPED, service.getState() );
+    }
+
+    private void waitForSubmits(int count) throws InterruptedException {
+        for ( int i = 0; i < 300 && submitted.size() < count; i++ ) {
+            Thread.sleep( 10 );
+        }
+        assertTrue( submitted.size() >= count );
+    }
+
+    private static BufferedImage redImage() {
+        BufferedImage image = new BufferedImage( 16, 16, BufferedImage.TYPE_INT_RGB );
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor( Color.RED );
+        graphics.fillRect( 0, 0, 16, 16 );
+        graphics.dispose();
+        return image;
+    }
+
+    private static PlexSession session(String player, long partId) {
+        PlexSession session = new PlexSession();
+        session.setPlayer( player );
+        session.setPartId( partId );
+        session.setState( "playing" );
+        return session;
+    }
+}
@@ -0,0 +1,55 @@
+package com.huebris.plexhuebris.service;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PlaybackClockTest {
+
+    private long nanos;
+    private final PlaybackClock clock = new PlaybackClock( 1000, () -> nanos );
+
+    @Test
+    public void extrapolatesWhilePlayingAndHoldsWhilePaused() {
+        clock.anchor( 7, 10000, true );
+        advance( 1500 );
+        assertEquals( 11500, clock.getOffsetMs() );
+
+        clock.pause( -1 );
+        advance( 5000 );
+        assertEquals( 11500, clock.getOffsetMs() );
+        assertFalse( clock.isPlaying() );
+
+        clock.play( -1 );
+        advance( 500 );
+        assertEquals( 12000, clock.getOffsetMs() );
+    }
+
+    @Test
+    public void pullsHalfwayTowardsANearbyAnchor() {
+        clock.anchor( 7, 10000, true );
+        advance( 2000 );
+        clock.anchor( 7, 11600, true );
+        assertEquals( -400, clock.getDriftMs() );
+        assertEquals( 11800, clock.getOffsetMs() );
+    }
+
+    @Test
+    public void jumpsToAnAnchorBeyondTheTolerance() {
+        clock.anchor( 7, 10000, true );
+        advance( 2000 );
+        clock.anchor( 7, 60000, true );
+        assertEquals( 60000, clock.getOffsetMs() );
+
+        clock.anchor( 8, 0, true );
+        assertEquals( 8, clock.getPartId() );
+        assertEquals( 0, clock.getOffsetMs() );
+    }
+
+    private void advance(long millis) {
+        nanos += TimeUnit.MILLISECONDS.toNanos( millis );
+    }
+}
@@ -0,0 +1,40 @@
+package com.huebris.plexhuebris.service;
+
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class PlexLibraryParserTest {
+
+    private static final String EPISODES =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<MediaContainer size=\"2\" librarySectionID=\"2\">\n" +
+            "  <Video ratingKey=\"300\" type=\"episode\" title=\"Pilot\">\n" +
+            "    <Media id=\"30\" duration=\"2640000\">\n" +
+            "      <Part id=\"501\" duration=\"2640000\" file=\"/media/tv/Show/S01E01.mkv\"/>\n" +
+            "    </Media>\n" +
+            "    <Media id=\"31\">\n" +
+            "      <Part id=\"502\" file=\"/media/tv/Show/S01E01.720p.mkv\"/>\n" +
+            "    </Media>\n" +
+            "  </Video>\n" +
+            "  <Directory ratingKey=\"301\" type=\"season\" title=\"Season 2\"/>\n" +
+            "  <Track ratingKey=\"400\"><Media><Part id=\"9\" file=\"/media/music/song.flac\"/></Media></Track>\n" +
+            "</MediaContainer>\n";
+
+    @Test
+    public void readsEveryPartOfEveryVideo() throws XMLStreamException {
+        List<PlexLibraryPart> parts = new PlexLibraryParser().parse( new ByteArrayInputStream( EPISODES.getBytes( StandardCharsets.UTF_8 ) ) );
+
+        assertEquals( 2, parts.size() );
+        assertEquals( 501, parts.get( 0 ).getPartId() );
+        assertEquals( "/media/tv/Show/S01E01.mkv", parts.get( 0 ).getFile() );
+        assertEquals( 2640000, parts.get( 0 ).getDurationMs() );
+        assertEquals( 502, parts.get( 1 ).getPartId() );
+        assertEquals( 0, parts.get( 1 ).getDurationMs() );
+    }
+}
@@ -0,0 +1,59 @@
+package com.huebris.plexhuebris.service;
+
+import org.junit.Test;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlexSessionsParserTest {
+
+    private static final String SESSIONS =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<MediaContainer size=\"3\">\n" +
+            "  <Video ratingKey=\"100\" title=\"Movie\" viewOffset=\"61000\">\n" +
+            "    <Media id=\"1\" videoResolution=\"1080\">\n" +
+            "      <Part id=\"4242\" duration=\"7200000\" file=\"/movies/movie.mkv\"><Stream id=\"1\" streamType=\"1\"/></Part>\n" +
+            "    </Media>\n" +
+            "    <User id=\"1\" title=\"someone\"/>\n" +
+            "    <Player machineIdentifier=\"living-room\" title=\"Living Room TV\" state=\"playing\"/>\n" +
+            "  </Video>\n" +
+            "  <Track ratingKey=\"200\" viewOffset=\"1000\">\n" +
+            "    <Media><Part id=\"7\"/></Media>\n" +
+            "    <Player machineIdentifier=\"kitchen\" state=\"playing\"/>\n" +
+            "  </Track>\n" +
+            "  <Video ratingKey=\"101\" viewOffset=\"5000\">\n" +
+            "    <Media><Part id=\"99\"/></Media>\n" +
+            "    <Player machineIdentifier=\"bedroom\" title=\"Bedroom\" state=\"paused\"/>\n" +
+            "  </Video>\n" +
+            "</MediaContainer>\n";
+
+    @Test
+    public void readsEveryVideoSession() throws XMLStreamException {
+        List<PlexSession> sessions = new PlexSessionsParser().parse( new ByteArrayInputStream( SESSIONS.getBytes( StandardCharsets.UTF_8 ) ) );
+
+        assertEquals( 2, sessions.size() );
+        PlexSession livingRoom = sessions.get( 0 );
+        assertEquals( "living-room", livingRoom.getPlayer() );
+        assertEquals( "Living Room TV", livingRoom.getPlayerTitle() );
+        assertEquals( 4242, livingRoom.getPartId() );
+        assertEquals( 61000, livingRoom.getViewOffsetMs() );
+        assertTrue( livingRoom.isPlaying() );
+
+        PlexSession bedroom = sessions.get( 1 );
+        assertEquals( "bedroom", bedroom.getPlayer() );
+        assertEquals( 99, bedroom.getPartId() );
+        assertFalse( bedroom.isPlaying() );
+    }
+
+    @Test
+    public void readsAnEmptyContainer() throws XMLStreamException {
+        List<PlexSession> sessions = new PlexSessionsParser().parse( new ByteArrayInputStream( "<MediaContainer size=\"0\"/>".getBytes( StandardCharsets.UTF_8 ) ) );
+        assertTrue( sessions.isEmpty() );
+    }
+}
@@ -0,0 +1,51 @@
+package com.huebris.plexhuebris.service;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ScanJobSchedulerTest {
+
+    private final ScanJobScheduler scheduler = new ScanJobScheduler( null, null, null, "http://plex", "32400", "token", 2000, false, 1, 2 ) {
+        @Override
+        protected List<PlexLibraryPart> listParts(long section) {
+            return Collections.emptyList();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    public void remembersOnlyTheLastFinishedJobs() throws InterruptedException {
+        for ( int i = 0; i < 4; i++ ) {
+            scheduler.submit( 1, null, false );
+        }
+        ScanJob last = scheduler.getJob( 4 );
+        long deadline = System.currentTimeMillis() + 5000;
+        while ( scheduler.getJobs().size() > 2 && System.currentTimeMillis() < deadline ) {
+            Thread.sleep( 10 );
+        }
+
+        assertEquals( ScanJob.State.DONE, last.getState() );
+        assertEquals( Arrays.asList( 3L, 4L ), ids( scheduler.getJobs() ) );
+        assertNull( scheduler.getJob( 1 ) );
+    }
+
+    private static List<Long> ids(List<ScanJob> jobs) {
+        List<Long> ids = new ArrayList<>();
+        for ( ScanJob job : jobs ) {
+            ids.add( job.getId() );
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,96 @@
+package com.huebris.plexhuebris.service;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScanJobTest {
+
+    private final AtomicLong now = new AtomicLong( 1 );
+    private final AtomicBoolean playing = new AtomicBoolean();
+    private final ScanJob job = new ScanJob( 1, 2, null, false, playing::get, 1, now::get );
+
+    @Test
+    public void measuresProgressAndEtaInMediaTime() throws InterruptedException {
+        job.start( Arrays.asList( part( 1, 60000 ), part( 2, 180000 ) ), 0 );
+        job.beginFile( part( 1, 60000 ) );
+        advanceClock( 1000 );
+        job.advance( 60000, 50 );
+        job.finishFile( true );
+
+        assertEquals( 0.25, job.getProgress(), 0.0001 );
+        assertEquals( 50, job.getFramesPerSecond(), 0.0001 );
+        // A quarter took a second, so three quarters take three more.
+        assertEquals( 3000, job.getEtaMs() );
+    }
+
+    @Test
+    public void takesTheDecodedDurationOverTheLibrarysOne() {
+        job.start( Arrays.asList( part( 1, 0 ), part( 2, 100000 ) ), 1 );
+        job.beginFile( part( 1, 0 ) );
+        job.started( 100000 );
+
+        assertEquals( 0, job.getProgress(), 0.0001 );
+        assertEquals( 1, job.getStatistics().get( "skipped" ) );
+        job.finishFile( true );
+        assertEquals( 0.5, job.getProgress(), 0.0001 );
+    }
+
+    @Test
+    public void holdsWhileSomethingPlaysWithoutCountingTheWait() throws InterruptedException {
+        job.start( Arrays.asList( part( 1, 10000 ) ), 0 );
+        job.beginFile( part( 1, 10000 ) );
+        advanceClock( 1000 );
+        playing.set( true );
+
+        Thread scanner = new Thread( () -> {
+            try {
+                job.advance( 5000, 100 );
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } );
+        scanner.start();
+        for ( int i = 0; i < 100 && job.getState() != ScanJob.State.PAUSED; i++ ) {
+            Thread.sleep( 10 );
+        }
+        assertEquals( ScanJob.State.PAUSED, job.getState() );
+        advanceClock( 60000 );
+        playing.set( false );
+        scanner.join( 1000 );
+
+        assertEquals( ScanJob.State.RUNNING, job.getState() );
+        assertEquals( 100, job.getFramesPerSecond(), 0.0001 );
+    }
+
+    @Test
+    public void stopsAtTheNextCheckpointOnceCancelled() {
+        job.start( Arrays.asList( part( 1, 10000 ) ), 0 );
+        job.cancel();
+        try {
+            job.advance( 1000, 1 );
+            fail( "Expected the cancelled job to stop" );
+        } catch (InterruptedException e) {
+            assertTrue( job.isCancelled() );
+        }
+    }
+
+    private void advanceClock(long ms) {
+        now.addAndGet( TimeUnit.MILLISECONDS.toNanos( ms ) );
+    }
+
+    private static PlexLibraryPart part(long partId, long durationMs) {
+        PlexLibraryPart part = new PlexLibraryPart();
+        part.setPartId( partId );
+        part.setFile( "/media/" + partId + ".mkv" );
+        part.setDurationMs( durationMs );
+        return part;
+    }
+}
@@ -0,0 +1,56 @@
+package com.huebris.plexhuebris.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SessionTrackerTest {
+
+    private long nanos;
+    private final SessionTracker tracker = new SessionTracker( new SimpleMeterRegistry(), new CircuitBreakers( 5, 10000 ),
+            "http://plex", "32400", "token", 2000, 10000, 1500 ) {
+        @Override
+        protected PlaybackClock newClock() {
+            return new PlaybackClock( 1500, () -> nanos );
+        }
+    };
+
+    @Test
+    public void forgetsAPlayerWithAPartAsSoonAsPlexStopsListingIt() {
+        tracker.update( Collections.singletonList( session( "tv", 42 ) ) );
+        assertEquals( Collections.singleton( "tv" ), tracker.getPlayers() );
+
+        tracker.update( Collections.emptyList() );
+        assertTrue( tracker.getPlayers().isEmpty() );
+    }
+
+    @Test
+    public void forgetsAPlayerWithoutAPartOnceItWasNotListedForAResync() {
+        tracker.update( Collections.singletonList( session( "tv", 0 ) ) );
+
+        advance( 9000 );
+        tracker.update( Collections.emptyList() );
+        assertEquals( Collections.singleton( "tv" ), tracker.getPlayers() );
+
+        advance( 1000 );
+        tracker.update( Collections.emptyList() );
+        assertTrue( tracker.getPlayers().isEmpty() );
+    }
+
+    private void advance(long ms) {
+        nanos += TimeUnit.MILLISECONDS.toNanos( ms );
+    }
+
+    private static PlexSession session(String player, long partId) {
+        PlexSession session = new PlexSession();
+        session.setPlayer( player );
+        session.setPartId( partId );
+        session.setState( "playing" );
+        return session;
+    }
+}
@@ -0,0 +1,72 @@
+package com.huebris.plexhuebris.service;
+
+import org.junit.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ThumbnailDecoderTest {
+
+    private final ThumbnailDecoder decoder = new ThumbnailDecoder( 160, 2 );
+
+    @Test
+    public void subsamplesToTheDecodeWidth() throws IOException {
+        BufferedImage image = decode( jpeg( 320, 180 ) );
+
+        assertEquals( 160, image.getWidth() );
+        assertEquals( 90, image.getHeight() );
+        Color left = new Color( image.getRGB( 20, 45 ) );
+        Color right = new Color( image.getRGB( 140, 45 ) );
+        assertTrue( left.getRed() > 200 && left.getBlue() < 60 );
+        assertTrue( right.getBlue() > 200 && right.getRed() < 60 );
+    }
+
+    @Test
+    public void decodesIntoReleasedImages() throws IOException {
+        byte[] jpeg = jpeg( 320, 180 );
+        BufferedImage first = decode( jpeg );
+        decoder.release( first );
+        BufferedImage second = decode( jpeg );
+
+        assertSame( first, second );
+        assertEquals( 1, decoder.getAllocatedCount() );
+        assertEquals( 1, decoder.getReusedCount() );
+    }
+
+    @Test
+    public void growsTheBufferForLargeDownloads() throws IOException {
+        byte[] data = new byte[200 * 1024];
+        data[0] = 'G';
+
+        int length = decoder.download( new ByteArrayInputStream( data ), -1 );
+
+        assertEquals( data.length, length );
+        assertNull( decoder.decode( length ) );
+    }
+
+    private BufferedImage decode(byte[] jpeg) throws IOException {
+        return decoder.decode( decoder.download( new ByteArrayInputStream( jpeg ), jpeg.length ) );
+    }
+
+    private static byte[] jpeg(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage( width, height, BufferedImage.TYPE_INT_RGB );
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor( Color.RED );
+        graphics.fillRect( 0, 0, width / 2, height );
+        graphics.setColor( Color.BLUE );
+        graphics.fillRect( width / 2, 0, width - width / 2, height );
+        graphics.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write( image, "jpeg", out );
+        return out.toByteArray();
+    }
+}
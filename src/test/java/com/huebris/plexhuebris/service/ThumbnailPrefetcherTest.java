@@ -0,0 +1,205 @@
+package com.huebris.plexhuebris.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ThumbnailPrefetcherTest {
+
+    private final List<Long> requested = new CopyOnWriteArrayList<>();
+    private ThumbnailPrefetcher prefetcher;
+
+    @Before
+    public void setUp() {
+        prefetcher = new ThumbnailPrefetcher( new SimpleMeterRegistry(), new CircuitBreakers( 5, 10000 ), new ThumbnailDecoder( 160, 8 ), "http://plex", "32400", "token", 1000, 3, 2, 2000, 0, 320, 180 ) {
+            @Override
+            protected BufferedImage fetch(long partId, long offsetMs, int timeoutMs) {
+                requested.add( offsetMs );
+                return new BufferedImage( 4, 4, BufferedImage.TYPE_INT_RGB );
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        prefetcher.shutdown();
+    }
+
+    @Test
+    public void fetchesTheWindowAheadOnceAndServesItFromTheRing() throws InterruptedException {
+        prefetcher.advance( "tv", 1, 2500 );
+        waitForRequests( 3 );
+        assertNotNull( awaitImage( 2400 ) );
+        assertNotNull( awaitImage( 4000 ) );
+
+        prefetcher.advance( "tv", 1, 3100 );
+        waitForRequests( 4 );
+        assertEquals( 5000L, (long)requested.get( 3 ) );
+        assertEquals( 4, requested.size() );
+        assertTrue( prefetcher.getHitRate() > 0 );
+    }
+
+    @Test
+    public void evictsOffsetsPlaybackHasPassed() throws InterruptedException {
+        prefetcher.advance( "tv", 1, 0 );
+        waitForRequests( 3 );
+        prefetcher.advance( "tv", 1, 5000 );
+        waitForRequests( 6 );
+        assertNull( prefetcher.get( "tv", 1, 0 ) );
+        assertNotNull( awaitImage( 7000 ) );
+    }
+
+    @Test
+    public void handsImagesBackToTheDecoderWhenTheRingIsCleared() throws InterruptedException {
+        List<BufferedImage> released = new CopyOnWriteArrayList<>();
+        prefetcher.shutdown();
+        prefetcher = new ThumbnailPrefetcher( new SimpleMeterRegistry(), new CircuitBreakers( 5, 10000 ), new ThumbnailDecoder( 160, 8 ) {
+            @Override
+            public void release(BufferedImage image) {
+                released.add( image );
+            }
+        }, "http://plex", "32400", "token", 1000, 3, 2, 2000, 0, 320, 180 ) {
+            @Override
+            protected BufferedImage fetch(long partId, long offsetMs, int timeoutMs) {
+                requested.add( offsetMs );
+                return new BufferedImage( 4, 4, BufferedImage.TYPE_INT_RGB );
+            }
+        };
+
+        prefetcher.advance( "tv", 1, 0 );
+        waitForRequests( 3 );
+        assertNotNull( awaitImage( 2000 ) );
+        assertNotNull( awaitImage( 0 ) );
+        assertNotNull( awaitImage( 1000 ) );
+        prefetcher.clear( "tv" );
+
+        assertEquals( 3, released.size() );
+    }
+
+    @Test
+    public void countsAMissForAnotherPartOrPlayer() {
+        prefetcher.advance( "tv", 1, 0 );
+        assertNull( prefetcher.get( "tv", 2, 0 ) );
+        assertNull( prefetcher.get( "bedroom", 1, 0 ) );
+        assertEquals( 2L, prefetcher.getStatistics().get( "misses" ) );
+    }
+
+    @Test
+    public void dropsAThumbnailThatArrivesAfterItsDeadline() throws InterruptedException {
+        prefetcher.shutdown();
+        prefetcher = new ThumbnailPrefetcher( new SimpleMeterRegistry(), new CircuitBreakers( 5, 10000 ), new ThumbnailDecoder( 160, 8 ), "http://plex", "32400", "token", 1000, 1, 1, 2000, 0, 320, 180 ) {
+            @Override
+            protected BufferedImage fetch(long partId, long offsetMs, int timeoutMs) throws InterruptedIOException {
+                requested.add( offsetMs );
+                sleep( 200 );
+                return new BufferedImage( 4, 4, BufferedImage.TYPE_INT_RGB );
+            }
+        };
+
+        // Playback leaves the 0 to 1000 bucket 50 ms from now.
+        prefetcher.advance( "tv", 1, 950 );
+        waitForRequests( 1 );
+        Thread.sleep( 300 );
+
+        assertNull( prefetcher.get( "tv", 1, 950 ) );
+        assertEquals( 1L, prefetcher.getStatistics().get( "expired" ) );
+    }
+
+    @Test
+    public void hedgesARequestThatIsSlowToAnswer() throws InterruptedException {
+        prefetcher.shutdown();
+        prefetcher = new ThumbnailPrefetcher( new SimpleMeterRegistry(), new CircuitBreakers( 5, 10000 ), new ThumbnailDecoder( 160, 8 ), "http://plex", "32400", "token", 10000, 1, 2, 2000, 50, 320, 180 ) {
+            @Override
+            protected BufferedImage fetch(long partId, long offsetMs, int timeoutMs) throws InterruptedIOException {
+                requested.add( offsetMs );
+                if ( requested.size() == 1 ) {
+                    sleep( 1000 );
+                }
+                return new BufferedImage( 4, 4, BufferedImage.TYPE_INT_RGB );
+            }
+        };
+
+        prefetcher.advance( "tv", 1, 0 );
+        waitForRequests( 2 );
+
+        assertNotNull( awaitImage( 0 ) );
+        assertEquals( 1L, prefetcher.getStatistics().get( "hedged" ) );
+    }
+
+    @Test
+    public void stopsFetchingWhileTheCircuitIsOpen() throws InterruptedException {
+        prefetcher.shutdown();
+        prefetcher = new ThumbnailPrefetcher( new SimpleMeterRegistry(), new CircuitBreakers( 2, 10000 ), new ThumbnailDecoder( 160, 8 ), "http://plex", "32400", "token", 1000, 4, 1, 2000, 0, 320, 180 ) {
+            @Override
+            protected BufferedImage fetch(long partId, long offsetMs, int timeoutMs) throws IOException {
+                requested.add( offsetMs );
+                throw new IOException( "Connection refused" );
+            }
+        };
+
+        prefetcher.advance( "tv", 1, 0 );
+        waitForRequests( 2 );
+        Thread.sleep( 100 );
+
+        assertEquals( 2, requested.size() );
+        assertEquals( 2L, prefetcher.getStatistics().get( "rejected" ) );
+    }
+
+    @Test
+    public void countsAnUnexpectedErrorAsAFailure() throws InterruptedException {
+        prefetcher.shutdown();
+        prefetcher = new ThumbnailPrefetcher( new SimpleMeterRegistry(), new CircuitBreakers( 2, 10000 ), new ThumbnailDecoder( 160, 8 ), "http://plex", "32400", "token", 1000, 4, 1, 2000, 0, 320, 180 ) {
+            @Override
+            protected BufferedImage fetch(long partId, long offsetMs, int timeoutMs) {
+                requested.add( offsetMs );
+                throw new IllegalStateException( "Corrupt thumbnail" );
+            }
+        };
+
+        prefetcher.advance( "tv", 1, 0 );
+        waitForRequests( 2 );
+        Thread.sleep( 100 );
+
+        assertEquals( 2L, prefetcher.getStatistics().get( "failed" ) );
+        assertEquals( 2L, prefetcher.getStatistics().get( "rejected" ) );
+        assertNull( prefetcher.get( "tv", 1, 0 ) );
+    }
+
+    private static void sleep(long ms) throws InterruptedIOException {
+        try {
+            Thread.sleep( ms );
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private BufferedImage awaitImage(long offsetMs) throws InterruptedException {
+        for ( int i = 0; i < 100; i++ ) {
+            BufferedImage image = prefetcher.get( "tv", 1, offsetMs );
+            if ( image != null ) {
+                return image;
+            }
+            Thread.sleep( 10 );
+        }
+        return null;
+    }
+
+    private void waitForRequests(int count) throws InterruptedException {
+        for ( int i = 0; i < 100 && requested.size() < count; i++ ) {
+            Thread.sleep( 10 );
+        }
+        assertEquals( count, requested.size() );
+    }
+}